@@ -0,0 +1,114 @@
+package Benchmark;
+
+import ConcurrentUtil.HashTable;
+import CustomSim.Market;
+import CustomSim.Trader;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Allocated bytes per iteration of the steady-state trader loop and of HashTable
+ * reads, updates and cursor walks. These paths must allocate nothing, so the
+ * process exits with status 1 if any of them does.
+ */
+public class AllocationBenchmark {
+
+    private static final int numberOfTickers = 5_000;
+    private static final int loops = 1_000_000;
+    private static final int updateEvery = 1_000;
+
+    // bytes allocated by reading the allocation counter itself
+    private static long overhead() {
+        long start = FootprintBenchmark.allocatedBytes();
+        return FootprintBenchmark.allocatedBytes() - start;
+    }
+
+    private static double perLoop(long start) {
+        long end = FootprintBenchmark.allocatedBytes();
+        return (double) Math.max(0, end - start - overhead()) / loops;
+    }
+
+    /**
+     * Run the CustomSim trader loop: buy or sell, and revalue every updateEvery loops.
+     * @param confined True for single-owner holdings
+     * @return Allocated bytes per loop
+     */
+    public static double testTrader(boolean confined) throws InterruptedException {
+        Trader trader = new Trader(confined);
+        // fill the holdings to their steady state size and warm up the JIT first
+        for (int i = 0; i < loops; i++) {
+            step(trader, i);
+        }
+        long start = FootprintBenchmark.allocatedBytes();
+        for (int i = 0; i < loops; i++) {
+            step(trader, i);
+        }
+        return perLoop(start);
+    }
+
+    private static void step(Trader trader, int i) throws InterruptedException {
+        if (ThreadLocalRandom.current().nextBoolean()) {
+            trader.purchaseStock();
+        }
+        else {
+            trader.sellStock();
+        }
+        if (i % updateEvery == 0) {
+            trader.updateValues();
+        }
+    }
+
+    /**
+     * Read and update random keys of a HashTable and walk it with a cursor.
+     * @return Allocated bytes per loop
+     */
+    public static double testHashTable(String[] tickers) throws InterruptedException {
+        HashTable table = new HashTable();
+        for (int i = 0; i < tickers.length; i++) {
+            table.add(tickers[i], i);
+        }
+        HashTable.Cursor cursor = table.cursor();
+        // first round warms up the JIT
+        cycle(table, cursor);
+        long start = FootprintBenchmark.allocatedBytes();
+        cycle(table, cursor);
+        return perLoop(start);
+    }
+
+    private static void cycle(HashTable table, HashTable.Cursor cursor) throws InterruptedException {
+        for (int i = 0; i < loops; i++) {
+            String key = table.getRandomKey();
+            table.updatePair(key, table.getValue(key) + 1);
+            if (i % updateEvery == 0) {
+                cursor.reset();
+                while (cursor.next()) {
+                    table.updatePair(cursor.getKey(), cursor.getValue());
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] tickers = FootprintBenchmark.tickers(numberOfTickers);
+        float[] prices = new float[numberOfTickers];
+        for (int i = 0; i < numberOfTickers; i++) {
+            prices[i] = 1 + ThreadLocalRandom.current().nextFloat() * 100;
+        }
+        Market.getInstance().load(tickers, prices);
+        double[] results = {
+                testTrader(false),
+                testTrader(true),
+                testHashTable(tickers)
+        };
+        System.out.println("Trader, concurrent holdings (bytes/loop): " + results[0]);
+        System.out.println("Trader, confined holdings (bytes/loop): " + results[1]);
+        System.out.println("HashTable get/update/cursor (bytes/loop): " + results[2]);
+        for (double result : results) {
+            if (result > 0) {
+                System.out.println("FAIL: steady-state loop allocates");
+                System.exit(1);
+            }
+        }
+    }
+
+}
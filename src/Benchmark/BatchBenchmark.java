@@ -0,0 +1,102 @@
+package Benchmark;
+
+import ConcurrentUtil.MpscQueue;
+import CustomSim.CustomSim;
+import CustomSim.Market;
+import CustomSim.ShardedMarket;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Order batching on a sharded market. For each batch size, loops per second
+ * of CustomSim, and the fills per second and mean wait from an order being
+ * added to its batch until the batch comes back filled, for one thread
+ * keeping a fixed number of batches in flight.
+ */
+public class BatchBenchmark {
+
+    private static final int numberOfTickers = 4096;
+    private static final int numberOfShards = 2;
+    private static final long batchDelayMicros = 200;
+    private static final int inFlight = 8;
+    private static final long runNanos = 2_000_000_000L;
+
+    /**
+     * Run CustomSim once.
+     * @param batchSize Most orders per batch
+     * @return Loops per second
+     */
+    public static long testSim(int batchSize) {
+        CustomSim cs = new CustomSim();
+        cs.setNumberOfTraders(16);
+        cs.setShards(numberOfShards);
+        cs.setBatching(batchSize, batchDelayMicros, TimeUnit.MICROSECONDS);
+        long start = System.nanoTime();
+        long loops = cs.simulate();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        return loops * 1000 / millis;
+    }
+
+    /**
+     * Send full batches of random orders for one shard, refilling each as it comes back.
+     * @param batchSize Orders per batch
+     * @return Fills per second and mean nanoseconds from adding an order to its fill
+     */
+    public static long[] testPipeline(int batchSize) throws InterruptedException {
+        ShardedMarket market = new ShardedMarket(Market.getInstance().getPrices(), numberOfShards);
+        market.start();
+        MpscQueue<ShardedMarket.Batch> fills = new MpscQueue<>();
+        long fillCount = 0;
+        long waited = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < inFlight; i++) {
+            send(market, new ShardedMarket.Batch(fills, batchSize), batchSize);
+        }
+        while (System.nanoTime() - start < runNanos) {
+            ShardedMarket.Batch batch = fills.poll();
+            if (batch == null) {
+                // let the shards run on a busy machine
+                Thread.yield();
+                continue;
+            }
+            long now = System.nanoTime();
+            // orders were added back to back, so every order waited about as long
+            waited += (now - batch.getOpened()) * batch.getSize();
+            fillCount += batch.getSize();
+            batch.clear();
+            send(market, batch, batchSize);
+        }
+        long nanos = System.nanoTime() - start;
+        market.stop();
+        return new long[] { fillCount * 1_000_000_000L / nanos, fillCount == 0 ? 0 : waited / fillCount };
+    }
+
+    // fill a batch with orders for shard 0 and send it
+    private static void send(ShardedMarket market, ShardedMarket.Batch batch, int batchSize) {
+        int shardTickers = numberOfTickers / numberOfShards;
+        while (!batch.add(ThreadLocalRandom.current().nextInt(shardTickers) * numberOfShards,
+                ThreadLocalRandom.current().nextBoolean())) {
+            // keep adding until the batch is full
+        }
+        market.submit(batch);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] tickers = FootprintBenchmark.tickers(numberOfTickers);
+        float[] prices = new float[numberOfTickers];
+        for (int i = 0; i < numberOfTickers; i++) {
+            prices[i] = 1 + ThreadLocalRandom.current().nextFloat() * 100;
+        }
+        Market.getInstance().load(tickers, prices);
+        System.out.println("processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("batch size,sim loops/s,pipeline fills/s,mean fill wait ns");
+        int[] sizes = { 1, 4, 16, 64 };
+        for (int size : sizes) {
+            long loops = testSim(size);
+            long[] pipeline = testPipeline(size);
+            System.out.println(size + "," + loops + "," + pipeline[0] + "," + pipeline[1]);
+        }
+    }
+
+}
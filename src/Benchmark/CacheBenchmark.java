@@ -0,0 +1,74 @@
+package Benchmark;
+
+import ConcurrentUtil.MarketCache;
+import ConcurrentUtil.MappedCsvLoader;
+import CustomSim.Market;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Time to load a generated NASDAQ format file into a new market by parsing it
+ * every time, through an empty cache, and through a cache already holding it.
+ * The first argument sets the number of rows.
+ */
+public class CacheBenchmark {
+
+    private static final int defaultRows = 1_000_000;
+
+    /**
+     * Load a file into a new market.
+     * @param file File to load
+     * @param cache Cache to load through, null to parse the file
+     * @return Milliseconds taken
+     */
+    public static long testLoad(Path file, MarketCache cache) {
+        Market market = new Market();
+        long start = System.nanoTime();
+        if (cache == null) {
+            market.load(file, Runtime.getRuntime().availableProcessors());
+        }
+        else {
+            market.load(cache, file.toUri().toString());
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : defaultRows;
+        Path file = LoadBenchmark.generate(rows);
+        Path directory = Files.createTempDirectory("market-cache");
+        MarketCache cache = new MarketCache(directory, new MappedCsvLoader(0, 2));
+        System.out.println("file: " + Files.size(file) / (1 << 20) + " MB, " + rows + " rows");
+        System.out.println("load,ms");
+        // first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            System.gc();
+            long parse = testLoad(file, null);
+            try (Stream<Path> entries = Files.list(directory)) {
+                for (Path entry : (Iterable<Path>) entries::iterator) {
+                    Files.delete(entry);
+                }
+            }
+            System.gc();
+            long cold = testLoad(file, cache);
+            System.gc();
+            long warm = testLoad(file, cache);
+            if (round == 1) {
+                System.out.println("parse," + parse);
+                System.out.println("cache miss," + cold);
+                System.out.println("cache hit," + warm);
+                try (Stream<Path> entries = Files.list(directory)) {
+                    System.out.println("entry MB," + entries.mapToLong(p -> p.toFile().length()).sum() / (1 << 20));
+                }
+            }
+        }
+        try (Stream<Path> entries = Files.walk(directory)) {
+            entries.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+}
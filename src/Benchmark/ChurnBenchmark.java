@@ -0,0 +1,97 @@
+package Benchmark;
+
+import ConcurrentUtil.HashTable;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Adds and removes a few keys from many threads while a HashTable grows
+ * through its first resizes, then checks that the size it reports matches its
+ * contents. Every round starts from an empty table so every round resizes.
+ * Exits with status 1 if any round disagrees.
+ */
+public class ChurnBenchmark {
+
+    private static final int numberOfThreads = 8;
+    private static final int numberOfKeys = 64;
+    private static final int opsPerThread = 200_000;
+
+    /**
+     * Churn one new table and compare its size with its contents.
+     * @return Operations per second, or -1 if the size and contents disagree
+     */
+    public static long testChurn() throws InterruptedException {
+        HashTable table = new HashTable();
+        String[] keys = new String[numberOfKeys];
+        for (int i = 0; i < numberOfKeys; i++) {
+            keys[i] = "K" + i;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
+        Future<?>[] results = new Future[numberOfThreads];
+        long start = System.nanoTime();
+        for (int i = 0; i < numberOfThreads; i++) {
+            results[i] = pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int op = 0; op < opsPerThread; op++) {
+                    String key = keys[random.nextInt(numberOfKeys)];
+                    if (random.nextBoolean()) {
+                        table.addAndGet(key, 1f);
+                    }
+                    else {
+                        table.remove(key);
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        pool.shutdown();
+        // every key must be visited once, and be counted once
+        Set<String> visited = new HashSet<>();
+        int entries = 0;
+        HashTable.Cursor cursor = table.cursor();
+        while (cursor.next()) {
+            visited.add(cursor.getKey());
+            entries++;
+        }
+        int keysFound = table.getKeys().size();
+        if (table.getSize() != entries || entries != visited.size() || keysFound != entries) {
+            System.out.println("size: " + table.getSize() + ", entries: " + entries + ", distinct: "
+                    + visited.size() + ", keys: " + keysFound);
+            return -1;
+        }
+        return (long) numberOfThreads * opsPerThread * 1_000_000_000L / nanos;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int failed = 0;
+        long total = 0;
+        for (int r = 0; r < rounds; r++) {
+            long opsPerSecond = testChurn();
+            if (opsPerSecond < 0) {
+                failed++;
+            }
+            else {
+                total += opsPerSecond;
+            }
+        }
+        System.out.println("Rounds: " + rounds + ", failed: " + failed);
+        if (failed < rounds) {
+            System.out.println("Ops/s: " + total / (rounds - failed));
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package Benchmark;
+
+import ConcurrentUtil.FloatHashTable;
+
+import java.util.concurrent.*;
+
+/**
+ * Adds to the same keys from many threads while a FloatHashTable grows from
+ * empty through several resizes, then checks that no addition was lost or
+ * applied twice and that the size counts every key once. Every round starts
+ * from an empty table so every round resizes.
+ * Exits with status 1 if any round disagrees.
+ */
+public class FloatChurnBenchmark {
+
+    private static final int numberOfThreads = 8;
+    private static final int numberOfKeys = 5_000;
+    private static final int passesPerThread = 4;
+
+    /**
+     * Add to every key of one new table from every thread and check the sums.
+     * @return Operations per second, or -1 if a sum or the size is wrong
+     */
+    public static long testChurn() throws InterruptedException {
+        FloatHashTable table = new FloatHashTable();
+        String[] keys = new String[numberOfKeys];
+        for (int i = 0; i < numberOfKeys; i++) {
+            keys[i] = "K" + i;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
+        Future<?>[] results = new Future[numberOfThreads];
+        long start = System.nanoTime();
+        for (int i = 0; i < numberOfThreads; i++) {
+            // each thread starts at a different key, so new keys arrive from all threads at once
+            final int offset = i * numberOfKeys / numberOfThreads;
+            results[i] = pool.submit(() -> {
+                for (int pass = 0; pass < passesPerThread; pass++) {
+                    for (int k = 0; k < numberOfKeys; k++) {
+                        table.addAndGet(keys[(k + offset) % numberOfKeys], 1f);
+                    }
+                }
+                return null;
+            });
+        }
+        boolean failed = false;
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        pool.shutdown();
+        float expected = numberOfThreads * passesPerThread;
+        int wrong = 0;
+        for (String key : keys) {
+            if (table.get(key) != expected) {
+                wrong++;
+            }
+        }
+        if (failed || wrong > 0 || table.getSize() != numberOfKeys) {
+            System.out.println("size: " + table.getSize() + ", wrong sums: " + wrong);
+            return -1;
+        }
+        return (long) numberOfThreads * passesPerThread * numberOfKeys * 1_000_000_000L / nanos;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int failed = 0;
+        long total = 0;
+        for (int r = 0; r < rounds; r++) {
+            long opsPerSecond = testChurn();
+            if (opsPerSecond < 0) {
+                failed++;
+            }
+            else {
+                total += opsPerSecond;
+            }
+        }
+        System.out.println("Rounds: " + rounds + ", failed: " + failed);
+        if (failed < rounds) {
+            System.out.println("Ops/s: " + total / (rounds - failed));
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package Benchmark;
+
+import ConcurrentUtil.FloatHashTable;
+import ConcurrentUtil.HashTable;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Heap bytes per entry and allocated bytes per lookup of HashTable and FloatHashTable.
+ */
+public class FootprintBenchmark {
+
+    private static final int numberOfKeys = 100_000;
+    private static final int lookups = 1_000_000;
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // bytes allocated by the current thread so far
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static String[] tickers(int count) {
+        String[] tickers = new String[count];
+        for (int i = 0; i < count; i++) {
+            // base 26 names like real tickers
+            StringBuilder sb = new StringBuilder();
+            for (int n = i; ; n = n / 26 - 1) {
+                sb.append((char) ('A' + n % 26));
+                if (n < 26) {
+                    break;
+                }
+            }
+            tickers[i] = sb.reverse().toString();
+        }
+        return tickers;
+    }
+
+    /**
+     * Fill a HashTable and measure it.
+     * @return Heap bytes per entry and allocated bytes per lookup
+     */
+    public static long[] testHashTable(String[] tickers) throws InterruptedException {
+        long before = usedHeap();
+        HashTable table = new HashTable();
+        for (int i = 0; i < tickers.length; i++) {
+            table.add(tickers[i], i);
+        }
+        long bytes = usedHeap() - before;
+        long start = allocatedBytes();
+        for (int i = 0; i < lookups; i++) {
+            table.getValue(tickers[i % tickers.length]);
+        }
+        return new long[] { bytes / tickers.length, (allocatedBytes() - start) / lookups };
+    }
+
+    /**
+     * Fill a FloatHashTable and measure it.
+     * @return Heap bytes per entry and allocated bytes per lookup
+     */
+    public static long[] testFloatHashTable(String[] tickers) {
+        long[] keys = new long[tickers.length];
+        for (int i = 0; i < tickers.length; i++) {
+            keys[i] = FloatHashTable.pack(tickers[i]);
+        }
+        long before = usedHeap();
+        FloatHashTable table = new FloatHashTable();
+        for (int i = 0; i < keys.length; i++) {
+            table.put(keys[i], i);
+        }
+        long bytes = usedHeap() - before;
+        long start = allocatedBytes();
+        for (int i = 0; i < lookups; i++) {
+            table.get(keys[i % keys.length], 0f);
+        }
+        return new long[] { bytes / tickers.length, (allocatedBytes() - start) / lookups };
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] tickers = tickers(numberOfKeys);
+        long[] table = testHashTable(tickers);
+        long[] floatTable = testFloatHashTable(tickers);
+        System.out.println("HashTable bytes/entry: " + table[0] + ", bytes/lookup: " + table[1]);
+        System.out.println("FloatHashTable bytes/entry: " + floatTable[0] + ", bytes/lookup: " + floatTable[1]);
+    }
+
+}
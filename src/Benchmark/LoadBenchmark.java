@@ -0,0 +1,68 @@
+package Benchmark;
+
+import CustomSim.Market;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Rows per second and time to first trade of the commons-csv Market loader
+ * against the memory mapped parallel loader, on a generated file in the
+ * NASDAQ screener format. The first argument sets the number of rows.
+ */
+public class LoadBenchmark {
+
+    private static final int defaultRows = 1_000_000;
+
+    // write a file laid out like the NASDAQ screener download
+    static Path generate(int rows) throws IOException {
+        Path file = Files.createTempFile("market", ".csv");
+        file.toFile().deleteOnExit();
+        new SyntheticMarket(rows, 42).write(file);
+        return file;
+    }
+
+    /**
+     * Load a file into a new market and make the first trade.
+     * @param file File to load
+     * @param threads Threads of the mapped loader, 0 for the commons-csv loader
+     * @return Rows per second of the load, and milliseconds until the first price was read
+     */
+    public static long[] testLoad(Path file, int threads) throws InterruptedException {
+        Market market = new Market();
+        long start = System.nanoTime();
+        if (threads == 0) {
+            market.load(file.toUri().toString());
+        }
+        else {
+            market.load(file, threads);
+        }
+        long loaded = System.nanoTime();
+        // what a trader does first
+        market.getStock(market.getRandomId());
+        long traded = System.nanoTime();
+        return new long[] { market.getSize() * 1_000_000_000L / (loaded - start), (traded - start) / 1_000_000 };
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : defaultRows;
+        Path file = generate(rows);
+        System.out.println("processors: " + Runtime.getRuntime().availableProcessors()
+                + ", file: " + Files.size(file) / (1 << 20) + " MB, " + rows + " rows");
+        System.out.println("loader,rows/s,time to first trade ms");
+        int[] runs = { 0, 1, 2, 4 };
+        // first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            for (int threads : runs) {
+                System.gc();
+                long[] result = testLoad(file, threads);
+                if (round == 1) {
+                    System.out.println((threads == 0 ? "commons-csv" : "mapped x" + threads)
+                            + "," + result[0] + "," + result[1]);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package Benchmark;
+
+import ConcurrentUtil.Mutex;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Throughput of Mutex against ReentrantLock, in barging and fair modes, as the
+ * number of threads contending for one lock grows. Each thread increments a
+ * shared counter under the lock and does a little work outside it.
+ */
+public class LockBenchmark {
+
+    private static final long runMillis = 1000;
+
+    // the locks share method names but no common type
+    private interface Lock {
+        void lock() throws InterruptedException;
+        void unlock();
+    }
+
+    private static Lock wrap(Mutex mutex) {
+        return new Lock() {
+            public void lock() throws InterruptedException { mutex.lock(); }
+            public void unlock() { mutex.unlock(); }
+        };
+    }
+
+    private static Lock wrap(ReentrantLock lock) {
+        return new Lock() {
+            public void lock() { lock.lock(); }
+            public void unlock() { lock.unlock(); }
+        };
+    }
+
+    /**
+     * Run the counter workload against a lock.
+     * @param lock Lock to run against
+     * @param threads Number of threads
+     * @return Lock acquisitions per second
+     */
+    private static long testThroughput(Lock lock, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicBoolean shouldRun = new AtomicBoolean(true);
+        long[] counter = new long[1];
+        Future<Long>[] counts = new Future[threads];
+        for (int i = 0; i < threads; i++) {
+            counts[i] = pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long ops = 0;
+                while (shouldRun.get()) {
+                    lock.lock();
+                    try {
+                        counter[0]++;
+                    }
+                    finally {
+                        lock.unlock();
+                    }
+                    // work outside the lock
+                    for (int n = random.nextInt(64); n > 0; n--) {
+                        Thread.onSpinWait();
+                    }
+                    ops++;
+                }
+                return ops;
+            });
+        }
+        long total = 0;
+        try {
+            Thread.sleep(runMillis);
+            shouldRun.set(false);
+            for (Future<Long> count : counts) {
+                total += count.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        pool.shutdown();
+        if (total != counter[0]) {
+            System.err.println("lost updates: " + total + " acquisitions, counter " + counter[0]);
+        }
+        return total * 1000 / runMillis;
+    }
+
+    public static void main(String[] args) {
+        int maxThreads = Math.max(16, Runtime.getRuntime().availableProcessors());
+        System.out.println("threads,Mutex ops/s,ReentrantLock ops/s,fair Mutex ops/s,fair ReentrantLock ops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.println(threads
+                    + "," + testThroughput(wrap(new Mutex()), threads)
+                    + "," + testThroughput(wrap(new ReentrantLock()), threads)
+                    + "," + testThroughput(wrap(new Mutex(true)), threads)
+                    + "," + testThroughput(wrap(new ReentrantLock(true)), threads));
+        }
+    }
+
+}
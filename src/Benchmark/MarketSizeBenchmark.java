@@ -0,0 +1,139 @@
+package Benchmark;
+
+import ConcurrentUtil.HashTable;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fill time and throughput of HashTable against ConcurrentHashMap as the
+ * market grows, on synthetic markets from 1k tickers up to the first argument
+ * (1M by default, 10M needs a few GB of heap). The second argument is the
+ * seed, so every run measures the same tickers. Each thread runs a trader-like
+ * mix of 9 reads to 1 update on random tickers. Both tables get a discarded
+ * warm-up pass first, and the order they run in alternates between sizes.
+ */
+public class MarketSizeBenchmark {
+
+    private static final int defaultMaxSize = 1_000_000;
+    private static final long defaultSeed = 42;
+    private static final int threads = 4;
+    private static final long runMillis = 1000;
+    private static final int warmupFills = 20;
+
+    private interface Table {
+        float get(String key) throws InterruptedException;
+        void update(String key, float value) throws InterruptedException;
+    }
+
+    private static Table fillHashTable(SyntheticMarket market) throws InterruptedException {
+        String[] tickers = market.getTickers();
+        float[] prices = market.getPrices();
+        HashTable table = new HashTable();
+        for (int i = 0; i < tickers.length; i++) {
+            table.add(tickers[i], prices[i]);
+        }
+        return new Table() {
+            public float get(String key) throws InterruptedException { return table.getValue(key); }
+            public void update(String key, float value) throws InterruptedException { table.updatePair(key, value); }
+        };
+    }
+
+    private static Table fillConcurrentHashMap(SyntheticMarket market) {
+        String[] tickers = market.getTickers();
+        float[] prices = market.getPrices();
+        ConcurrentHashMap<String, Float> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < tickers.length; i++) {
+            map.put(tickers[i], prices[i]);
+        }
+        return new Table() {
+            public float get(String key) { return map.get(key); }
+            public void update(String key, float value) { map.put(key, value); }
+        };
+    }
+
+    /**
+     * Run the mixed workload against a table.
+     * @return Operations per second
+     */
+    private static long testThroughput(Table table, String[] keys) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicBoolean shouldRun = new AtomicBoolean(true);
+        Future<Long>[] counts = new Future[threads];
+        for (int i = 0; i < threads; i++) {
+            counts[i] = pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long ops = 0;
+                while (shouldRun.get()) {
+                    String key = keys[random.nextInt(keys.length)];
+                    if (random.nextInt(10) == 0) {
+                        table.update(key, random.nextFloat());
+                    }
+                    else {
+                        table.get(key);
+                    }
+                    ops++;
+                }
+                return ops;
+            });
+        }
+        long total = 0;
+        try {
+            Thread.sleep(runMillis);
+            shouldRun.set(false);
+            for (Future<Long> count : counts) {
+                total += count.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        pool.shutdown();
+        return total * 1000 / runMillis;
+    }
+
+    /**
+     * Fill a new table with a market and run the mixed workload against it.
+     * @return Fill time in ns per entry, then operations per second
+     */
+    private static long[] measure(boolean hashTable, SyntheticMarket market) throws InterruptedException {
+        System.gc();
+        long start = System.nanoTime();
+        Table table = hashTable ? fillHashTable(market) : fillConcurrentHashMap(market);
+        long fill = (System.nanoTime() - start) / market.getTickers().length;
+        return new long[] {fill, testThroughput(table, market.getTickers())};
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : defaultMaxSize;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : defaultSeed;
+        System.out.println("seed " + seed + ", " + threads + " threads");
+        // discarded passes of each table, so neither is measured on a cold JVM
+        SyntheticMarket warmup = new SyntheticMarket(10_000, seed + 1);
+        for (int i = 0; i < warmupFills; i++) {
+            fillHashTable(warmup);
+            fillConcurrentHashMap(warmup);
+        }
+        measure(true, warmup);
+        measure(false, warmup);
+        System.out.println("tickers,HashTable fill ns/entry,HashTable ops/s,"
+                + "ConcurrentHashMap fill ns/entry,ConcurrentHashMap ops/s");
+        boolean tableFirst = true;
+        for (int size = 1000; size <= maxSize; size *= 10) {
+            SyntheticMarket market = new SyntheticMarket(size, seed);
+            // alternate which table runs first, so neither always gets the fresher heap
+            long[] table;
+            long[] map;
+            if (tableFirst) {
+                table = measure(true, market);
+                map = measure(false, market);
+            }
+            else {
+                map = measure(false, market);
+                table = measure(true, market);
+            }
+            tableFirst = !tableFirst;
+            System.out.println(size + "," + table[0] + "," + table[1] + "," + map[0] + "," + map[1]);
+        }
+    }
+
+}
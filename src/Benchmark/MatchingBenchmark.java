@@ -0,0 +1,183 @@
+package Benchmark;
+
+import ConcurrentUtil.MpscQueue;
+import CustomSim.MatchingEngine;
+import CustomSim.Order;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Matching throughput and latency of the MatchingEngine under 16 to 64
+ * traders. Every trader places one-share limit orders within 1% of the last
+ * trade price of a random stock among a few hot ones, keeps a few in flight
+ * and cancels those still resting when it runs out. Queue latency is the time
+ * from the submit until a shard starts matching the order, over every order.
+ * Fill latency is the time from the submit until the last share filled, over
+ * the orders that filled completely. The first argument sets the number of
+ * matching shards.
+ */
+public class MatchingBenchmark {
+
+    private static final int numberOfTickers = 64;
+    private static final int ordersPerTrader = 8;
+    private static final int maxSamples = 1 << 18;
+    private static final long runMillis = 2000;
+
+    /**
+     * Trade against the engine until told to stop.
+     * @param measureFrom nanoTime from which latencies are recorded
+     * @return Queue latencies of the orders that came back, then fill latencies of
+     *         those that filled, in nanoseconds, at most maxSamples of each
+     */
+    private static long[][] trade(MatchingEngine engine, AtomicBoolean shouldRun, long measureFrom) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        MpscQueue<Order> replies = new MpscQueue<>();
+        Order[] orders = new Order[ordersPerTrader];
+        boolean[] inFlight = new boolean[ordersPerTrader];
+        for (int i = 0; i < ordersPerTrader; i++) {
+            orders[i] = new Order(replies);
+        }
+        // send number of each order in flight, the lowest is the oldest
+        long[] sentAs = new long[ordersPerTrader];
+        long sends = 0;
+        long[] queued = new long[maxSamples];
+        int queuedCount = 0;
+        long[] filled = new long[maxSamples];
+        int filledCount = 0;
+        while (shouldRun.get()) {
+            for (Order order = replies.poll(); order != null; order = replies.poll()) {
+                if (order.settle()) {
+                    if (System.nanoTime() >= measureFrom) {
+                        if (queuedCount < maxSamples) {
+                            queued[queuedCount++] = order.getQueueLatency();
+                        }
+                        long fill = order.getFillLatency();
+                        if (fill >= 0 && filledCount < maxSamples) {
+                            filled[filledCount++] = fill;
+                        }
+                    }
+                    for (int i = 0; i < ordersPerTrader; i++) {
+                        if (orders[i] == order) {
+                            inFlight[i] = false;
+                        }
+                    }
+                }
+            }
+            int slot = 0;
+            while (slot < ordersPerTrader && inFlight[slot]) {
+                slot++;
+            }
+            if (slot == ordersPerTrader) {
+                // cancel the oldest order still resting, then let the engine catch up
+                int oldest = -1;
+                for (int i = 0; i < ordersPerTrader; i++) {
+                    if (!orders[i].isCancelling() && (oldest < 0 || sentAs[i] < sentAs[oldest])) {
+                        oldest = i;
+                    }
+                }
+                if (oldest >= 0) {
+                    engine.cancel(orders[oldest]);
+                }
+                Thread.yield();
+                continue;
+            }
+            int id = random.nextInt(numberOfTickers);
+            int last = engine.getLastPrice(id);
+            int spread = Math.max(1, last / 100);
+            Order order = orders[slot];
+            order.reset(id, random.nextBoolean(), Math.max(1, last + random.nextInt(-spread, spread + 1)), 1);
+            inFlight[slot] = true;
+            engine.submit(order);
+            sentAs[slot] = sends++;
+        }
+        return new long[][] {Arrays.copyOf(queued, queuedCount), Arrays.copyOf(filled, filledCount)};
+    }
+
+    // merge the samples of every trader at index, sorted
+    private static long[] merge(long[][][] samples, int index) {
+        long[] all = new long[0];
+        for (long[][] trader : samples) {
+            int at = all.length;
+            all = Arrays.copyOf(all, at + trader[index].length);
+            System.arraycopy(trader[index], 0, all, at, trader[index].length);
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    // the 50th, 90th, 99th and 99.9th percentile and the highest of sorted samples, from result[at]
+    private static void percentiles(long[] all, long[] result, int at) {
+        if (all.length > 0) {
+            result[at] = all[all.length / 2];
+            result[at + 1] = all[(int) (all.length * 0.9)];
+            result[at + 2] = all[(int) (all.length * 0.99)];
+            result[at + 3] = all[(int) (all.length * 0.999)];
+            result[at + 4] = all[all.length - 1];
+        }
+    }
+
+    /**
+     * Run traders against a new engine.
+     * @param traders Number of trader threads
+     * @param shards Number of matching shards
+     * @return Orders and cancels matched per second, trades per second, then
+     *         the 50th, 90th, 99th and 99.9th percentile and the highest queue
+     *         latency, then the same for fill latency, in nanoseconds
+     */
+    public static long[] testMatching(int traders, int shards) {
+        MatchingEngine engine = new MatchingEngine(new SyntheticMarket(numberOfTickers, 42).getPrices(), shards);
+        engine.start();
+        ExecutorService pool = Executors.newFixedThreadPool(traders);
+        AtomicBoolean shouldRun = new AtomicBoolean(true);
+        Future<long[][]>[] latencies = new Future[traders];
+        // leave the first second out to warm up
+        long measureFrom = System.nanoTime() + 1_000_000_000L;
+        for (int i = 0; i < traders; i++) {
+            latencies[i] = pool.submit(() -> trade(engine, shouldRun, measureFrom));
+        }
+        long[] result = new long[12];
+        try {
+            Thread.sleep(Math.max(0, (measureFrom - System.nanoTime()) / 1_000_000));
+            long orders = engine.getOrders();
+            long trades = engine.getTrades();
+            long start = System.nanoTime();
+            Thread.sleep(runMillis);
+            long nanos = System.nanoTime() - start;
+            result[0] = (engine.getOrders() - orders) * 1_000_000_000L / nanos;
+            result[1] = (engine.getTrades() - trades) * 1_000_000_000L / nanos;
+            shouldRun.set(false);
+            long[][][] samples = new long[traders][][];
+            for (int i = 0; i < traders; i++) {
+                samples[i] = latencies[i].get();
+            }
+            percentiles(merge(samples, 0), result, 2);
+            percentiles(merge(samples, 1), result, 7);
+            engine.stop();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        pool.shutdown();
+        return result;
+    }
+
+    public static void main(String[] args) {
+        int shards = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        System.out.println("processors: " + Runtime.getRuntime().availableProcessors() + ", shards: " + shards
+                + ", tickers: " + numberOfTickers);
+        System.out.println("traders,orders/s,trades/s,"
+                + "queue p50 us,queue p90 us,queue p99 us,queue p99.9 us,queue max us,"
+                + "fill p50 us,fill p90 us,fill p99 us,fill p99.9 us,fill max us");
+        int[] runs = { 16, 32, 64 };
+        for (int traders : runs) {
+            long[] r = testMatching(traders, shards);
+            StringBuilder line = new StringBuilder().append(traders).append(',').append(r[0]).append(',').append(r[1]);
+            for (int i = 2; i < r.length; i++) {
+                line.append(',').append(r[i] / 1000);
+            }
+            System.out.println(line);
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package Benchmark;
+
+import CustomSim.CustomSim;
+import CustomSim.Market;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Loops per second and resident memory per trader of CustomSim with one
+ * platform thread per trader against virtual thread mode, as the number of
+ * traders grows. The market is the size of a real exchange listing; a trader's
+ * holdings table grows with the stocks it holds, not with the market.
+ */
+public class PopulationBenchmark {
+
+    private static final int numberOfTickers = 10_000;
+    private static final int runSeconds = 5;
+
+    // resident set size of this process, or used heap where /proc is unavailable
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // fall through
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Run CustomSim once.
+     * @param traders Number of traders
+     * @param virtual True for virtual thread mode
+     * @return Loops per second and resident bytes per trader
+     */
+    public static long[] testSim(int traders, boolean virtual) throws InterruptedException {
+        System.gc();
+        long before = residentBytes();
+        long[] peak = new long[1];
+        // sample memory while every trader is running
+        Thread sampler = new Thread(() -> {
+            try {
+                Thread.sleep(runSeconds * 1000 - 1000);
+                peak[0] = residentBytes();
+            } catch (InterruptedException e) {
+                // stopped early
+            }
+        });
+        sampler.start();
+        CustomSim cs = new CustomSim();
+        cs.setConfinedPortfolios(true);
+        cs.setNumberOfTraders(traders);
+        cs.setVirtualThreads(virtual);
+        // traders may overrun the 5 seconds when there are too many threads to schedule
+        long start = System.nanoTime();
+        long loops = cs.simulate();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        sampler.join();
+        return new long[] { loops * 1000 / millis, Math.max(0, peak[0] - before) / traders };
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] tickers = FootprintBenchmark.tickers(numberOfTickers);
+        float[] prices = new float[numberOfTickers];
+        for (int i = 0; i < numberOfTickers; i++) {
+            prices[i] = 1 + ThreadLocalRandom.current().nextFloat() * 100;
+        }
+        Market.getInstance().load(tickers, prices);
+        System.out.println("mode,traders,loops/s,resident bytes/trader");
+        // on a single core, hundreds of platform threads take minutes to reach a safepoint
+        int[][] runs = { {16, 0}, {128, 0}, {16, 1}, {1_000, 1}, {10_000, 1}, {100_000, 1} };
+        for (int[] run : runs) {
+            long[] result = testSim(run[0], run[1] == 1);
+            System.out.println((run[1] == 1 ? "virtual" : "platform") + "," + run[0]
+                    + "," + result[0] + "," + result[1]);
+        }
+    }
+
+}
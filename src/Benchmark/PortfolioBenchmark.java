@@ -0,0 +1,114 @@
+package Benchmark;
+
+import ConcurrentUtil.DenseTable;
+import ConcurrentUtil.HashTable;
+import ConcurrentUtil.IdTable;
+import ConcurrentUtil.OwnedTable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trader loops per second with each kind of holdings, on one thread as in the
+ * simulations. Each loop buys or sells a random stock, and every updateEvery
+ * loops all holdings are revalued.
+ */
+public class PortfolioBenchmark {
+
+    private static final int numberOfTickers = 5_000;
+    private static final int updateEvery = 1_000;
+    private static final long runMillis = 1000;
+
+    public static long testIdTable(IdTable stocks, float[] prices) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long loops = 0;
+        long end = System.nanoTime() + runMillis * 1_000_000;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < updateEvery; i++) {
+                if (random.nextBoolean()) {
+                    int id = random.nextInt(prices.length);
+                    stocks.addAndGet(id, prices[id]);
+                }
+                else {
+                    int id = stocks.getRandomId();
+                    if (id >= 0) {
+                        stocks.remove(id);
+                    }
+                }
+            }
+            for (int i = 0; i < stocks.getSize(); i++) {
+                int id = stocks.idAt(i);
+                stocks.updatePair(id, prices[id]);
+            }
+            loops += updateEvery;
+        }
+        return loops * 1000 / runMillis;
+    }
+
+    public static long testHashTable(String[] tickers, float[] prices) throws InterruptedException {
+        HashTable stocks = new HashTable();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long loops = 0;
+        long end = System.nanoTime() + runMillis * 1_000_000;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < updateEvery; i++) {
+                if (random.nextBoolean()) {
+                    int id = random.nextInt(prices.length);
+                    stocks.add(tickers[id], prices[id]);
+                }
+                else {
+                    String key = stocks.getRandomKey();
+                    if (key != null) {
+                        stocks.remove(key);
+                    }
+                }
+            }
+            for (String key : stocks.getKeys()) {
+                stocks.updatePair(key, prices[0]);
+            }
+            loops += updateEvery;
+        }
+        return loops * 1000 / runMillis;
+    }
+
+    public static long testMap(Map<String, Float> stocks, String[] tickers, float[] prices) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long loops = 0;
+        long end = System.nanoTime() + runMillis * 1_000_000;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < updateEvery; i++) {
+                if (random.nextBoolean()) {
+                    int id = random.nextInt(prices.length);
+                    stocks.put(tickers[id], prices[id]);
+                }
+                else if (stocks.size() > 0) {
+                    // StandardSim.Trader picks a random key the same way
+                    Object[] keys = stocks.keySet().toArray();
+                    stocks.remove(keys[random.nextInt(keys.length)]);
+                }
+            }
+            stocks.replaceAll((k, v) -> prices[0]);
+            loops += updateEvery;
+        }
+        return loops * 1000 / runMillis;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] tickers = FootprintBenchmark.tickers(numberOfTickers);
+        float[] prices = new float[numberOfTickers];
+        for (int i = 0; i < numberOfTickers; i++) {
+            prices[i] = 1 + ThreadLocalRandom.current().nextFloat() * 100;
+        }
+        // first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            System.out.println("HashTable (loops/s): " + testHashTable(tickers, prices));
+            System.out.println("DenseTable (loops/s): " + testIdTable(new DenseTable(numberOfTickers), prices));
+            System.out.println("OwnedTable (loops/s): " + testIdTable(new OwnedTable(numberOfTickers), prices));
+            System.out.println("ConcurrentHashMap (loops/s): " + testMap(new ConcurrentHashMap<>(), tickers, prices));
+            System.out.println("HashMap (loops/s): " + testMap(new HashMap<>(), tickers, prices));
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package Benchmark;
+
+import ConcurrentUtil.SkipListQueue;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Throughput of SkipListQueue against PriorityBlockingQueue and
+ * ConcurrentSkipListMap as the number of threads grows. Each thread inserts
+ * a random key and polls the smallest in turn, on a queue kept near its
+ * starting size.
+ */
+public class PriorityQueueBenchmark {
+
+    private static final int startSize = 100_000;
+    private static final long runMillis = 1000;
+
+    // the three queues share no common type
+    private interface Queue {
+        void insert(long key);
+        void poll();
+    }
+
+    private static Queue newSkipListQueue() {
+        SkipListQueue<Long> queue = new SkipListQueue<>();
+        return new Queue() {
+            public void insert(long key) { queue.insert(key, key); }
+            public void poll() { queue.poll(); }
+        };
+    }
+
+    private static Queue newPriorityBlockingQueue() {
+        PriorityBlockingQueue<Long> queue = new PriorityBlockingQueue<>();
+        return new Queue() {
+            public void insert(long key) { queue.offer(key); }
+            public void poll() { queue.poll(); }
+        };
+    }
+
+    private static Queue newConcurrentSkipListMap() {
+        ConcurrentSkipListMap<Long, Long> map = new ConcurrentSkipListMap<>();
+        return new Queue() {
+            public void insert(long key) { map.put(key, key); }
+            public void poll() { map.pollFirstEntry(); }
+        };
+    }
+
+    /**
+     * Fill a queue, then insert and poll in turn from several threads.
+     * @param queue Empty queue
+     * @param threads Number of threads
+     * @return Inserts and polls per second
+     */
+    private static long testThroughput(Queue queue, int threads) {
+        for (int i = 0; i < startSize; i++) {
+            queue.insert(ThreadLocalRandom.current().nextLong());
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicBoolean shouldRun = new AtomicBoolean(true);
+        Future<Long>[] counts = new Future[threads];
+        for (int i = 0; i < threads; i++) {
+            counts[i] = pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long ops = 0;
+                while (shouldRun.get()) {
+                    queue.insert(random.nextLong());
+                    queue.poll();
+                    ops += 2;
+                }
+                return ops;
+            });
+        }
+        long total = 0;
+        try {
+            Thread.sleep(runMillis);
+            shouldRun.set(false);
+            for (Future<Long> count : counts) {
+                total += count.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        pool.shutdown();
+        return total * 1000 / runMillis;
+    }
+
+    public static void main(String[] args) {
+        int maxThreads = Math.max(16, Runtime.getRuntime().availableProcessors());
+        System.out.println("processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("threads,SkipListQueue ops/s,PriorityBlockingQueue ops/s,ConcurrentSkipListMap ops/s");
+        // first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                long skipList = testThroughput(newSkipListQueue(), threads);
+                long blocking = testThroughput(newPriorityBlockingQueue(), threads);
+                long map = testThroughput(newConcurrentSkipListMap(), threads);
+                if (round == 1) {
+                    System.out.println(threads + "," + skipList + "," + blocking + "," + map);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package Benchmark;
+
+import ConcurrentUtil.Queue;
+import ConcurrentUtil.RingBuffer;
+
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+/**
+ * Transfers per second through RingBuffer with each wait strategy, through
+ * ArrayBlockingQueue and through the unbounded Queue of threads, as the
+ * number of producers and consumers grows. Every producer sends a fixed
+ * number of elements, then one poison element per consumer stops the
+ * consumers. Consumers of RingBuffer also drain in batches.
+ */
+public class QueueBenchmark {
+
+    private static final int capacity = 1024;
+    private static final int perProducer = 500_000;
+    private static final Object item = new Object();
+    private static final Object poison = new Object();
+    // Queue only carries threads
+    private static final Thread poisonThread = new Thread();
+
+    // the queues share no common type
+    private interface Channel {
+        void put() throws InterruptedException;
+        void poison() throws InterruptedException;
+        // elements taken before the poison, blocking until it arrives
+        long consume() throws InterruptedException;
+    }
+
+    private static Channel wrap(RingBuffer<Object> ring, boolean drain) {
+        return new Channel() {
+            public void put() throws InterruptedException { ring.put(item); }
+            public void poison() throws InterruptedException { ring.put(poison); }
+            public long consume() throws InterruptedException {
+                if (!drain) {
+                    long n = 0;
+                    while (ring.take() != poison) {
+                        n++;
+                    }
+                    return n;
+                }
+                ArrayList<Object> batch = new ArrayList<>(64);
+                long n = 0;
+                for (;;) {
+                    if (ring.drainTo(batch, 64) == 0) {
+                        batch.add(ring.take());
+                    }
+                    for (Object value : batch) {
+                        if (value == poison) {
+                            // hand back what belongs to the other consumers
+                            for (int i = batch.indexOf(poison) + 1; i < batch.size(); i++) {
+                                ring.put(batch.get(i));
+                            }
+                            return n;
+                        }
+                        n++;
+                    }
+                    batch.clear();
+                }
+            }
+        };
+    }
+
+    private static Channel wrap(ArrayBlockingQueue<Object> queue) {
+        return new Channel() {
+            public void put() throws InterruptedException { queue.put(item); }
+            public void poison() throws InterruptedException { queue.put(poison); }
+            public long consume() throws InterruptedException {
+                long n = 0;
+                while (queue.take() != poison) {
+                    n++;
+                }
+                return n;
+            }
+        };
+    }
+
+    private static Channel wrap(Queue queue) {
+        return new Channel() {
+            public void put() { queue.put(Thread.currentThread()); }
+            public void poison() { queue.put(poisonThread); }
+            public long consume() {
+                long n = 0;
+                for (;;) {
+                    Thread thread = queue.pollThread();
+                    if (thread == poisonThread) {
+                        return n;
+                    }
+                    if (thread == null) {
+                        // unbounded, so nothing to wait on but the producers
+                        Thread.yield();
+                    }
+                    else {
+                        n++;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Run producers and consumers against a channel.
+     * @param channel Channel to run against
+     * @param threads Number of producers, and of consumers
+     * @return Transfers per second
+     */
+    private static long testThroughput(Channel channel, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(2 * threads);
+        Future<?>[] producers = new Future[threads];
+        Future<Long>[] consumers = new Future[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            consumers[i] = pool.submit(channel::consume);
+            producers[i] = pool.submit(() -> {
+                for (int n = 0; n < perProducer; n++) {
+                    channel.put();
+                }
+                return null;
+            });
+        }
+        long total = 0;
+        try {
+            for (Future<?> producer : producers) {
+                producer.get();
+            }
+            for (int i = 0; i < threads; i++) {
+                channel.poison();
+            }
+            for (Future<Long> consumer : consumers) {
+                total += consumer.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        long nanos = System.nanoTime() - start;
+        pool.shutdown();
+        if (total != (long) threads * perProducer) {
+            System.err.println("lost elements: " + ((long) threads * perProducer - total));
+        }
+        return total * 1_000_000_000L / nanos;
+    }
+
+    public static void main(String[] args) {
+        System.out.println("processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("queue,producers and consumers,transfers/s");
+        int[] threadCounts = { 1, 2, 4 };
+        for (int threads : threadCounts) {
+            for (RingBuffer.WaitStrategy strategy : RingBuffer.WaitStrategy.values()) {
+                System.out.println("RingBuffer " + strategy + "," + threads + ","
+                        + testThroughput(wrap(new RingBuffer<>(capacity, strategy), false), threads));
+            }
+            System.out.println("RingBuffer drainTo," + threads + ","
+                    + testThroughput(wrap(new RingBuffer<>(capacity), true), threads));
+            System.out.println("ArrayBlockingQueue," + threads + ","
+                    + testThroughput(wrap(new ArrayBlockingQueue<>(capacity)), threads));
+            System.out.println("Queue," + threads + "," + testThroughput(wrap(new Queue()), threads));
+        }
+    }
+
+}
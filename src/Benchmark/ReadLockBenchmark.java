@@ -0,0 +1,120 @@
+package Benchmark;
+
+import ConcurrentUtil.BiasedRWLock;
+import ConcurrentUtil.RWLock;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Throughput of RWLock, BiasedRWLock and ReentrantReadWriteLock for a read
+ * mostly workload from 1 to 64 threads. Each thread reads a shared price under
+ * the read lock, and one operation in writeEvery writes it under the write lock.
+ */
+public class ReadLockBenchmark {
+
+    private static final int writeEvery = 10_000;
+    private static final long runMillis = 1000;
+
+    // the locks share method names but no common type, lockRead returns a token
+    private interface Lock {
+        int lockRead() throws InterruptedException;
+        void unlockRead(int token) throws InterruptedException;
+        void lockWrite() throws InterruptedException;
+        void unlockWrite() throws InterruptedException;
+    }
+
+    private static Lock wrap(RWLock lock) {
+        return new Lock() {
+            public int lockRead() throws InterruptedException { lock.lockRead(); return 0; }
+            public void unlockRead(int token) throws InterruptedException { lock.unlockRead(); }
+            public void lockWrite() throws InterruptedException { lock.lockWrite(); }
+            public void unlockWrite() throws InterruptedException { lock.unlockWrite(); }
+        };
+    }
+
+    private static Lock wrap(BiasedRWLock lock) {
+        return new Lock() {
+            public int lockRead() throws InterruptedException { return lock.lockRead(); }
+            public void unlockRead(int token) throws InterruptedException { lock.unlockRead(token); }
+            public void lockWrite() throws InterruptedException { lock.lockWrite(); }
+            public void unlockWrite() throws InterruptedException { lock.unlockWrite(); }
+        };
+    }
+
+    private static Lock wrap(ReentrantReadWriteLock lock) {
+        return new Lock() {
+            public int lockRead() { lock.readLock().lock(); return 0; }
+            public void unlockRead(int token) { lock.readLock().unlock(); }
+            public void lockWrite() { lock.writeLock().lock(); }
+            public void unlockWrite() { lock.writeLock().unlock(); }
+        };
+    }
+
+    /**
+     * Run the read mostly workload against a lock.
+     * @param lock Lock to run against
+     * @param threads Number of threads
+     * @return Operations per second
+     */
+    private static long testThroughput(Lock lock, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicBoolean shouldRun = new AtomicBoolean(true);
+        float[] price = new float[1];
+        Future<Long>[] counts = new Future[threads];
+        for (int i = 0; i < threads; i++) {
+            counts[i] = pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long ops = 0;
+                float sum = 0;
+                while (shouldRun.get()) {
+                    if (random.nextInt(writeEvery) == 0) {
+                        lock.lockWrite();
+                        try {
+                            price[0] += 1f;
+                        }
+                        finally {
+                            lock.unlockWrite();
+                        }
+                    }
+                    else {
+                        int token = lock.lockRead();
+                        try {
+                            sum += price[0];
+                        }
+                        finally {
+                            lock.unlockRead(token);
+                        }
+                    }
+                    ops++;
+                }
+                // keep the reads from being optimized away
+                return sum < 0 ? 0 : ops;
+            });
+        }
+        long total = 0;
+        try {
+            Thread.sleep(runMillis);
+            shouldRun.set(false);
+            for (Future<Long> count : counts) {
+                total += count.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        pool.shutdown();
+        return total * 1000 / runMillis;
+    }
+
+    public static void main(String[] args) {
+        System.out.println("threads,RWLock ops/s,BiasedRWLock ops/s,ReentrantReadWriteLock ops/s");
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            System.out.println(threads
+                    + "," + testThroughput(wrap(new RWLock()), threads)
+                    + "," + testThroughput(wrap(new BiasedRWLock()), threads)
+                    + "," + testThroughput(wrap(new ReentrantReadWriteLock()), threads));
+        }
+    }
+
+}
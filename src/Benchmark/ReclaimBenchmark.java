@@ -0,0 +1,105 @@
+package Benchmark;
+
+import ConcurrentUtil.HashTable;
+import ConcurrentUtil.LinkedList;
+import ConcurrentUtil.Queue;
+
+import java.util.concurrent.*;
+
+/**
+ * Allocated bytes and throughput of the node churn behind buying and selling:
+ * Queue put and poll, LinkedList add and remove, and HashTable add and remove,
+ * on one thread and on several threads sharing one structure.
+ */
+public class ReclaimBenchmark {
+
+    private static final int ops = 2_000_000;
+    private static final int numberOfKeys = 64;
+
+    private interface Churn {
+        void step(int i) throws InterruptedException;
+    }
+
+    private static Churn queue() {
+        Queue queue = new Queue();
+        return i -> {
+            queue.put(Thread.currentThread());
+            queue.pollThread();
+        };
+    }
+
+    private static Churn list(String[] keys) {
+        LinkedList list = new LinkedList();
+        return i -> {
+            String key = keys[i % keys.length];
+            // keep the list at about half the keys
+            if (!list.remove(key)) {
+                list.add(key, i);
+            }
+        };
+    }
+
+    private static Churn table(String[] keys) {
+        HashTable table = new HashTable();
+        return i -> {
+            String key = keys[i % keys.length];
+            if (!table.remove(key)) {
+                table.add(key, i);
+            }
+        };
+    }
+
+    /**
+     * Run a churn on some threads at once.
+     * @param churn Churn to run
+     * @param threads Number of threads
+     * @return Allocated bytes per operation, and operations per second
+     */
+    private static long[] testChurn(Churn churn, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Future<Long>[] bytes = new Future[threads];
+        // first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                bytes[t] = pool.submit(() -> {
+                    long before = FootprintBenchmark.allocatedBytes();
+                    for (int i = 0; i < ops; i++) {
+                        churn.step(i + offset);
+                    }
+                    return FootprintBenchmark.allocatedBytes() - before;
+                });
+            }
+            long total = 0;
+            try {
+                for (Future<Long> b : bytes) {
+                    total += b.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+            long nanos = System.nanoTime() - start;
+            if (round == 1) {
+                pool.shutdown();
+                long count = (long) ops * threads;
+                return new long[] { total / count, count * 1_000_000_000L / nanos };
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) {
+        String[] keys = FootprintBenchmark.tickers(numberOfKeys);
+        System.out.println("churn,threads,bytes/op,ops/s");
+        for (int threads : new int[] { 1, 4 }) {
+            long[] q = testChurn(queue(), threads);
+            System.out.println("Queue put/poll," + threads + "," + q[0] + "," + q[1]);
+            long[] l = testChurn(list(keys), threads);
+            System.out.println("LinkedList add/remove," + threads + "," + l[0] + "," + l[1]);
+            long[] h = testChurn(table(keys), threads);
+            System.out.println("HashTable add/remove," + threads + "," + h[0] + "," + h[1]);
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package Benchmark;
+
+import ConcurrentUtil.HashTable;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * Measures per operation latency of HashTable while it grows from empty, so any
+ * stop-the-world resize shows up as an outlier in the tail percentiles.
+ */
+public class ResizeBenchmark {
+
+    private static final int numberOfThreads = 16;
+    private static final int keysPerThread = 50_000;
+
+    /**
+     * Insert keysPerThread distinct keys from each thread while other threads read.
+     * @return Sorted latencies of every add and getValue call in nanoseconds
+     */
+    public static long[] testGrowth() {
+        HashTable table = new HashTable();
+        ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
+        Future<long[]>[] results = new Future[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int id = i;
+            results[i] = pool.submit(() -> {
+                long[] latencies = new long[keysPerThread * 2];
+                for (int k = 0; k < keysPerThread; k++) {
+                    String key = id + "-" + k;
+                    long start = System.nanoTime();
+                    table.add(key, k);
+                    long mid = System.nanoTime();
+                    table.getValue(key);
+                    long end = System.nanoTime();
+                    latencies[2 * k] = mid - start;
+                    latencies[2 * k + 1] = end - mid;
+                }
+                return latencies;
+            });
+        }
+        long[] all = new long[numberOfThreads * keysPerThread * 2];
+        for (int i = 0; i < numberOfThreads; i++) {
+            try {
+                long[] latencies = results[i].get();
+                System.arraycopy(latencies, 0, all, i * latencies.length, latencies.length);
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        pool.shutdown();
+        Arrays.sort(all);
+        return all;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+
+    public static void main(String[] args) {
+        // warm up once so JIT compilation does not show up as resize stalls
+        testGrowth();
+        long[] latencies = testGrowth();
+        System.out.println("Operations: " + latencies.length);
+        System.out.println("p50 (ns): " + percentile(latencies, 0.50));
+        System.out.println("p99 (ns): " + percentile(latencies, 0.99));
+        System.out.println("p99.99 (ns): " + percentile(latencies, 0.9999));
+        System.out.println("max (ns): " + latencies[latencies.length - 1]);
+    }
+
+}
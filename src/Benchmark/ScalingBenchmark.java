@@ -0,0 +1,112 @@
+package Benchmark;
+
+import ConcurrentUtil.HashTable;
+import ConcurrentUtil.StripedHashTable;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Throughput of HashTable against StripedHashTable as the number of threads grows.
+ * Each thread runs a trader-like mix: mostly reads, some updates, adds and removes.
+ */
+public class ScalingBenchmark {
+
+    private static final int numberOfKeys = 10_000;
+    private static final long runMillis = 1000;
+
+    // the two tables share method names but no common type
+    private interface Table {
+        float get(String key) throws InterruptedException;
+        void update(String key, float value) throws InterruptedException;
+        void add(String key, float value) throws InterruptedException;
+        boolean remove(String key) throws InterruptedException;
+    }
+
+    private static Table wrap(HashTable table) {
+        return new Table() {
+            public float get(String key) throws InterruptedException { return table.getValue(key); }
+            public void update(String key, float value) throws InterruptedException { table.updatePair(key, value); }
+            public void add(String key, float value) throws InterruptedException { table.add(key, value); }
+            public boolean remove(String key) throws InterruptedException { return table.remove(key); }
+        };
+    }
+
+    private static Table wrap(StripedHashTable table) {
+        return new Table() {
+            public float get(String key) throws InterruptedException { return table.getValue(key); }
+            public void update(String key, float value) throws InterruptedException { table.updatePair(key, value); }
+            public void add(String key, float value) throws InterruptedException { table.add(key, value); }
+            public boolean remove(String key) throws InterruptedException { return table.remove(key); }
+        };
+    }
+
+    /**
+     * Run the mixed workload against a table.
+     * @param table Table to run against
+     * @param keys Keys already in the table
+     * @param threads Number of threads
+     * @return Operations per second
+     */
+    private static long testThroughput(Table table, String[] keys, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicBoolean shouldRun = new AtomicBoolean(true);
+        Future<Long>[] counts = new Future[threads];
+        for (int i = 0; i < threads; i++) {
+            counts[i] = pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long ops = 0;
+                while (shouldRun.get()) {
+                    String key = keys[random.nextInt(keys.length)];
+                    int op = random.nextInt(20);
+                    if (op < 16) {
+                        table.get(key);
+                    }
+                    else if (op < 18) {
+                        table.update(key, random.nextFloat());
+                    }
+                    else if (op < 19) {
+                        table.add(key, 1f);
+                    }
+                    else if (table.remove(key)) {
+                        table.add(key, random.nextFloat());
+                    }
+                    ops++;
+                }
+                return ops;
+            });
+        }
+        long total = 0;
+        try {
+            Thread.sleep(runMillis);
+            shouldRun.set(false);
+            for (Future<Long> count : counts) {
+                total += count.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        pool.shutdown();
+        return total * 1000 / runMillis;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int stripeCount = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int maxThreads = Math.max(16, Runtime.getRuntime().availableProcessors());
+        String[] keys = new String[numberOfKeys];
+        HashTable table = new HashTable();
+        StripedHashTable striped = new StripedHashTable(stripeCount);
+        for (int i = 0; i < numberOfKeys; i++) {
+            keys[i] = "T" + i;
+            table.add(keys[i], i);
+            striped.add(keys[i], i);
+        }
+        System.out.println("threads,HashTable ops/s,StripedHashTable(" + striped.getStripeCount() + ") ops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long single = testThroughput(wrap(table), keys, threads);
+            long stripedOps = testThroughput(wrap(striped), keys, threads);
+            System.out.println(threads + "," + single + "," + stripedOps);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package Benchmark;
+
+import CustomSim.CustomSim;
+import CustomSim.Market;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Loops per second of CustomSim against the shared Market singleton, and
+ * against a ShardedMarket with a growing number of single-writer shards.
+ */
+public class ShardBenchmark {
+
+    private static final int numberOfTickers = 4096;
+    private static final int numberOfTraders = 16;
+
+    /**
+     * Run CustomSim once.
+     * @param shards Number of shards, 0 for the shared Market
+     * @return Loops per second
+     */
+    public static long testSim(int shards) {
+        CustomSim cs = new CustomSim();
+        cs.setConfinedPortfolios(true);
+        cs.setNumberOfTraders(numberOfTraders);
+        cs.setShards(shards);
+        long start = System.nanoTime();
+        long loops = cs.simulate();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        return loops * 1000 / millis;
+    }
+
+    public static void main(String[] args) {
+        String[] tickers = FootprintBenchmark.tickers(numberOfTickers);
+        float[] prices = new float[numberOfTickers];
+        for (int i = 0; i < numberOfTickers; i++) {
+            prices[i] = 1 + ThreadLocalRandom.current().nextFloat() * 100;
+        }
+        Market.getInstance().load(tickers, prices);
+        System.out.println("processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("shards,loops/s");
+        int[] runs = { 0, 1, 2, 4, 8 };
+        for (int shards : runs) {
+            System.out.println((shards == 0 ? "shared" : Integer.toString(shards)) + "," + testSim(shards));
+        }
+    }
+
+}
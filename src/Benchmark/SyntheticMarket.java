@@ -0,0 +1,167 @@
+package Benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Deterministic market of unique tickers and prices, the same for the same
+ * size and seed on every run and JDK. Symbol lengths follow the NASDAQ list,
+ * mostly four letters with some three and five letter symbols, and spill
+ * into longer symbols once the shorter ones run out. Prices are log-normal
+ * around $20 and rounded to cents, so there are penny stocks and a long tail
+ * of expensive ones. The market feeds Market.load directly or is written as
+ * a CSV in the NASDAQ screener format for the loaders.
+ * Run with size, seed and path to write a file.
+ */
+public class SyntheticMarket {
+
+    // share of tickers with 1, 2, 3, 4 and 5 letters
+    private static final double[] lengthShares = { 0.002, 0.02, 0.18, 0.65, 0.148 };
+    private static final int maxLength = 7;
+    private static final double medianPrice = 20;
+    private static final double priceSigma = 1.3;
+    private static final float minPrice = 0.01f;
+    private static final float maxPrice = 50_000f;
+
+    private final long seed;
+    private final String[] tickers;
+    private final float[] prices;
+
+    /**
+     * Generate a market.
+     * @param size Number of tickers
+     * @param seed Seed of the market, equal seeds give equal markets
+     */
+    public SyntheticMarket(int size, long seed) {
+        this.seed = seed;
+        Random random = new Random(seed);
+        tickers = new String[size];
+        int count = 0;
+        int spill = 0;
+        for (int length = 1; length <= maxLength && count < size; length++) {
+            long capacity = pow26(length);
+            // the longest listed length takes the rest
+            int wanted = length < lengthShares.length
+                    ? (int) Math.round(lengthShares[length - 1] * size) + spill
+                    : size - count;
+            int n = (int) Math.min(Math.min(wanted, capacity), size - count);
+            spill = wanted - n;
+            // steps coprime to 26 visit distinct symbols until they wrap around
+            long step = randomCoprime(random, capacity);
+            long code = Math.floorMod(random.nextLong(), capacity);
+            for (int i = 0; i < n; i++) {
+                tickers[count++] = symbol(code, length);
+                code = (code + step) % capacity;
+            }
+        }
+        if (count < size) {
+            throw new IllegalArgumentException("Too many tickers: " + size);
+        }
+        // mix the lengths, Fisher-Yates
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            String t = tickers[i];
+            tickers[i] = tickers[j];
+            tickers[j] = t;
+        }
+        prices = new float[size];
+        for (int i = 0; i < size; i++) {
+            // Math.exp may be an intrinsic that differs between JDKs and CPUs
+            double price = medianPrice * StrictMath.exp(priceSigma * random.nextGaussian());
+            prices[i] = Math.max(minPrice, Math.min(maxPrice, Math.round(price * 100) / 100f));
+        }
+    }
+
+    private static long pow26(int length) {
+        long p = 1;
+        for (int i = 0; i < length; i++) {
+            p *= 26;
+        }
+        return p;
+    }
+
+    // odd and not a multiple of 13, below the capacity
+    private static long randomCoprime(Random random, long capacity) {
+        for (;;) {
+            long a = Math.floorMod(random.nextLong(), capacity) | 1;
+            if (a % 13 != 0) {
+                return a;
+            }
+        }
+    }
+
+    // the code-th symbol of a length in base 26
+    private static String symbol(long code, int length) {
+        char[] chars = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = (char) ('A' + code % 26);
+            code /= 26;
+        }
+        return new String(chars);
+    }
+
+    public int getSize() {
+        return tickers.length;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Get the tickers, shared with this market.
+     * @return Unique tickers
+     */
+    public String[] getTickers() {
+        return tickers;
+    }
+
+    /**
+     * Get the prices, shared with this market.
+     * @return Price of the ticker at the same index
+     */
+    public float[] getPrices() {
+        return prices;
+    }
+
+    /**
+     * Write the market as a CSV laid out like the NASDAQ screener download.
+     * @param file File to write, replaced if it exists
+     * @throws IOException The file could not be written
+     */
+    public void write(Path file) throws IOException {
+        // other columns are filled from the same seed
+        Random random = new Random(~seed);
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("\"Symbol\",\"Name\",\"LastSale\",\"MarketCap\",\"IPOyear\",\"Sector\",\"industry\",\"Summary Quote\",\n");
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < tickers.length; i++) {
+                String ticker = tickers[i];
+                long cents = Math.round(prices[i] * 100d);
+                line.setLength(0);
+                line.append('"').append(ticker).append("\",\"").append(ticker).append(" Holdings, Inc.\",\"")
+                        .append(cents / 100).append('.').append(cents % 100 < 10 ? "0" : "").append(cents % 100)
+                        .append("\",\"$").append(random.nextInt(1000)).append("M\",\"n/a\",\"Technology\",")
+                        .append("\"Computer Software\",\"https://www.nasdaq.com/symbol/")
+                        .append(ticker.toLowerCase()).append("\",\n");
+                out.append(line);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("usage: SyntheticMarket size seed file");
+            System.exit(1);
+        }
+        SyntheticMarket market = new SyntheticMarket(Integer.parseInt(args[0]), Long.parseLong(args[1]));
+        Path file = Paths.get(args[2]);
+        market.write(file);
+        System.out.println(file.toUri());
+    }
+
+}
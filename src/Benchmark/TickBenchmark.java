@@ -0,0 +1,68 @@
+package Benchmark;
+
+import ConcurrentUtil.HashTable;
+import ConcurrentUtil.TickEngine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Time to tick every price of a large market with HashTable.modifyValues, the
+ * ConcurrentHashMap loop of StandardSim.Market and TickEngine.
+ */
+public class TickBenchmark {
+
+    private static final int numberOfTickers = 100_000;
+    private static final int ticks = 50;
+
+    public static long testHashTable(String[] tickers) throws InterruptedException {
+        HashTable table = new HashTable();
+        for (int i = 0; i < tickers.length; i++) {
+            table.add(tickers[i], 100f);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            table.modifyValues();
+        }
+        return (System.nanoTime() - start) / ticks / 1000;
+    }
+
+    public static long testConcurrentHashMap(String[] tickers) {
+        ConcurrentHashMap<String, Float> stocks = new ConcurrentHashMap<>();
+        for (int i = 0; i < tickers.length; i++) {
+            stocks.put(tickers[i], 100f);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            stocks.forEach((k, v) -> {
+                stocks.put(k, v += (float) ThreadLocalRandom.current().nextGaussian());
+            });
+        }
+        return (System.nanoTime() - start) / ticks / 1000;
+    }
+
+    public static long testTickEngine(int size) {
+        TickEngine engine = new TickEngine(size);
+        float[] prices = new float[size];
+        float[] next = new float[size];
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            engine.tick(prices, next);
+            float[] swap = prices;
+            prices = next;
+            next = swap;
+        }
+        return (System.nanoTime() - start) / ticks / 1000;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] tickers = FootprintBenchmark.tickers(numberOfTickers);
+        // first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            System.out.println("HashTable.modifyValues (us/tick): " + testHashTable(tickers));
+            System.out.println("ConcurrentHashMap put loop (us/tick): " + testConcurrentHashMap(tickers));
+            System.out.println("TickEngine (us/tick): " + testTickEngine(numberOfTickers));
+        }
+    }
+
+}
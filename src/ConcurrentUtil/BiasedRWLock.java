@@ -0,0 +1,138 @@
+package ConcurrentUtil;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Reader-biased read write lock in the style of BRAVO. While the lock is biased
+ * towards readers, a reader only marks a slot of its own, picked by thread id
+ * and padded onto its own cache line, so readers on different cores never
+ * write the same line. A writer takes an underlying RWLock, revokes the bias
+ * and waits for every marked slot to clear. Revoking is slow, so the bias is
+ * not restored for a while proportional to how long the revocation took, and
+ * frequent writers keep readers on the underlying lock.
+ * lockRead returns a token that must be passed to unlockRead.
+ */
+public class BiasedRWLock {
+
+    // ints per slot, 128 bytes apart so adjacent slots never share a cache line
+    private static final int SLOT_STRIDE = 32;
+    // how many times the cost of a revocation the bias stays off after it
+    private static final long INHIBIT_MULTIPLIER = 9;
+    // token of a read that went through the underlying lock
+    private static final int SLOW_READ = -1;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final RWLock lock;
+    private final int[] slots;
+    private final int slotMask;
+    private volatile boolean biased;
+    // nanoTime before which readers may not restore the bias
+    private volatile long inhibitUntil;
+
+    /**
+     * Create a lock with enough reader slots for the number of processors.
+     */
+    public BiasedRWLock() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Create a lock with a given number of reader slots.
+     * @param slotCount Number of slots, rounded up to a power of 2
+     */
+    public BiasedRWLock(int slotCount) {
+        int count = slotCount <= 1 ? 1 : Integer.highestOneBit(slotCount - 1) << 1;
+        lock = new RWLock();
+        slots = new int[count * SLOT_STRIDE];
+        slotMask = count - 1;
+        biased = true;
+        inhibitUntil = 0L;
+    }
+
+    private int slotOf(Thread thread) {
+        // mix the id so consecutive thread ids spread over the slots
+        int hash = (int) thread.getId() * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & slotMask) * SLOT_STRIDE;
+    }
+
+    /**
+     * Lock for a read.
+     * @return Token to pass to unlockRead
+     * @throws InterruptedException
+     */
+    public int lockRead() throws InterruptedException {
+        if (biased) {
+            int slot = slotOf(Thread.currentThread());
+            if (SLOTS.compareAndSet(slots, slot, 0, 1)) {
+                // a writer that revoked the bias after the check may not have seen the slot
+                if (biased) {
+                    return slot;
+                }
+                SLOTS.setVolatile(slots, slot, 0);
+            }
+        }
+        lock.lockRead();
+        if (!biased && System.nanoTime() >= inhibitUntil) {
+            biased = true;
+        }
+        return SLOW_READ;
+    }
+
+    /**
+     * Unlock a reader.
+     * @param token Token returned by lockRead
+     * @throws InterruptedException
+     */
+    public void unlockRead(int token) throws InterruptedException {
+        if (token == SLOW_READ) {
+            lock.unlockRead();
+        }
+        else {
+            SLOTS.setRelease(slots, token, 0);
+        }
+    }
+
+    /**
+     * Lock for a write, revoking the reader bias if it is set.
+     * @throws InterruptedException
+     */
+    public void lockWrite() throws InterruptedException {
+        lock.lockWrite();
+        if (biased) {
+            biased = false;
+            long start = System.nanoTime();
+            // wait for the readers that marked a slot while the lock was biased
+            for (int slot = 0; slot < slots.length; slot += SLOT_STRIDE) {
+                for (int spins = 0; (int) SLOTS.getVolatile(slots, slot) != 0; spins++) {
+                    // the reader may be descheduled, let it run
+                    if (spins < 64) {
+                        Thread.onSpinWait();
+                    }
+                    else {
+                        Thread.yield();
+                    }
+                }
+            }
+            long now = System.nanoTime();
+            inhibitUntil = now + (now - start) * INHIBIT_MULTIPLIER;
+        }
+    }
+
+    /**
+     * Unlock a writer.
+     * @throws InterruptedException
+     */
+    public void unlockWrite() throws InterruptedException {
+        lock.unlockWrite();
+    }
+
+    /**
+     * Return whether readers currently skip the underlying lock.
+     * @return True if the lock is biased towards readers
+     */
+    public boolean isBiased() {
+        return biased;
+    }
+
+}
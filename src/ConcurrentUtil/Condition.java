@@ -1,8 +1,15 @@
 package ConcurrentUtil;
 
-import java.util.Optional;
-import java.util.Set;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Condition variable for a ConcurrentUtil.Mutex. Waiting threads are kept in a
+ * ConcurrentUtil.Queue and parked with LockSupport, so no monitor is held while
+ * waiting. A waiter that times out or is interrupted cancels its place in the
+ * queue, unless a signal claimed it first, in which case it counts as signalled.
+ */
 public class Condition {
 
     private Queue queue;
@@ -11,32 +18,123 @@ public class Condition {
         queue = new Queue();
     }
 
+    /**
+     * Release the mutex and wait until signalled, then lock it again.
+     * @param mutex Mutex held by this thread
+     * @throws InterruptedException Thread is interrupted while waiting
+     */
     public void await(Mutex mutex) throws InterruptedException {
-        Thread thread = Thread.currentThread();
-        synchronized (thread) {
-            mutex.unlock();
-            queue.put(thread);
-            thread.wait();
-        }
-        mutex.lock();
+        await(mutex, false, 0L);
     }
 
-    public void signal() {
-        Optional<Thread> thread = queue.poll();
-        if (!thread.isPresent()) {
-            return;
+    /**
+     * Release the mutex and wait until signalled or the time runs out, then lock it again.
+     * @param mutex Mutex held by this thread
+     * @param time Maximum time to wait
+     * @param unit Unit of time
+     * @return True if signalled, false if the time ran out
+     * @throws InterruptedException Thread is interrupted while waiting
+     */
+    public boolean await(Mutex mutex, long time, TimeUnit unit) throws InterruptedException {
+        return await(mutex, true, System.nanoTime() + unit.toNanos(time));
+    }
+
+    /**
+     * Release the mutex and wait until signalled or the time runs out, then lock it again.
+     * @param mutex Mutex held by this thread
+     * @param nanosTimeout Maximum time to wait in nanoseconds
+     * @return Estimate of the time left, zero or less if the time ran out
+     * @throws InterruptedException Thread is interrupted while waiting
+     */
+    public long awaitNanos(Mutex mutex, long nanosTimeout) throws InterruptedException {
+        long deadline = System.nanoTime() + nanosTimeout;
+        await(mutex, true, deadline);
+        return deadline - System.nanoTime();
+    }
+
+    /**
+     * Release the mutex and wait until signalled or a deadline passes, then lock it again.
+     * @param mutex Mutex held by this thread
+     * @param deadline Wall clock time to stop waiting at
+     * @return True if signalled, false if the deadline passed
+     * @throws InterruptedException Thread is interrupted while waiting
+     */
+    public boolean awaitUntil(Mutex mutex, Date deadline) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        Queue.Node node = queue.enqueue(current);
+        mutex.unlock();
+        boolean interrupted = false;
+        while (node.thread == current) {
+            if (System.currentTimeMillis() >= deadline.getTime()) {
+                break;
+            }
+            LockSupport.parkUntil(this, deadline.getTime());
+            if (Thread.interrupted()) {
+                interrupted = true;
+                break;
+            }
         }
-        synchronized (thread.get()) {
-            thread.get().notify();
+        return finish(mutex, node, interrupted);
+    }
+
+    // queue, release the mutex and park until signalled, interrupted or past deadline
+    private boolean await(Mutex mutex, boolean timed, long deadline) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        // queue before unlocking, or a signal in between would be lost
+        Queue.Node node = queue.enqueue(current);
+        mutex.unlock();
+        boolean interrupted = false;
+        // a polled node no longer holds this thread, it may even have been recycled
+        // for another one, and park returns early on signals meant for the mutex
+        while (node.thread == current) {
+            if (timed) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0L) {
+                    break;
+                }
+                LockSupport.parkNanos(this, nanos);
+            }
+            else {
+                LockSupport.park(this);
+            }
+            if (Thread.interrupted()) {
+                interrupted = true;
+                break;
+            }
         }
+        return finish(mutex, node, interrupted);
     }
 
-    public void signalAll() throws InterruptedException {
-        Set<Thread> threads = queue.pollAll();
-        for (Thread t : threads) {
-            synchronized (t) {
-                t.notify();
+    // leave the queue unless signalled, lock the mutex again and report the outcome
+    private boolean finish(Mutex mutex, Queue.Node node, boolean interrupted) throws InterruptedException {
+        boolean signalled = !queue.cancel(node);
+        mutex.lockUninterruptibly();
+        if (interrupted) {
+            if (!signalled) {
+                throw new InterruptedException();
             }
+            // the signal won, keep it and let the caller see the interrupt
+            Thread.currentThread().interrupt();
+        }
+        return signalled;
+    }
+
+    /**
+     * Wake the longest waiting thread.
+     */
+    public void signal() {
+        Thread thread = queue.pollThread();
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Wake every waiting thread, without allocating.
+     */
+    public void signalAll() {
+        for (Thread thread = queue.pollThread(); thread != null; thread = queue.pollThread()) {
+            LockSupport.unpark(thread);
         }
     }
 
@@ -0,0 +1,259 @@
+package ConcurrentUtil;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Map from ids to float values in an open addressing table that grows with
+ * the number of ids held. Values are read and updated lock-free; adding or
+ * removing an id takes a lock to keep a dense list of present ids for
+ * iteration and random sampling. A slot keeps its id once the id is removed,
+ * so a value never moves between slots until the table grows. Growing seals
+ * every old slot with MOVED before copying it, and lock-free updates that find
+ * MOVED retry on the new table. Removed ids keep their slots in the new table
+ * too, since a lock-free reader may still use the old one and it cannot be
+ * reused for a rebuild. The table therefore stops growing once it holds every
+ * id ever added, and buying and selling the same stocks allocates nothing.
+ */
+public class DenseTable implements IdTable {
+
+    // value of a slot whose id is not held
+    private static final float ABSENT = Float.intBitsToFloat(0x7fc0_0002);
+    // value of a slot copied into a larger table
+    private static final float MOVED = Float.intBitsToFloat(0x7fc0_0001);
+    private static final int MIN_CAPACITY = 8;
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(float[].class);
+
+    private static final class Slots {
+        // id + 1 of each slot, or 0 if free, only written under lock before the
+        // slot's value leaves ABSENT
+        final int[] keys;
+        final float[] values;
+        // position in ids of the id in each slot, guarded by lock
+        final int[] positions;
+
+        Slots(int capacity) {
+            keys = new int[capacity];
+            values = new float[capacity];
+            Arrays.fill(values, ABSENT);
+            positions = new int[capacity];
+        }
+
+        // slot holding id, or -1
+        int find(int id) {
+            int mask = keys.length - 1;
+            for (int slot = OwnedTable.hash(id, mask); ; slot = (slot + 1) & mask) {
+                int key = keys[slot];
+                if (key == id + 1) {
+                    return slot;
+                }
+                if (key == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        // take a free slot for id, only under lock
+        int insert(int id) {
+            int mask = keys.length - 1;
+            int slot = OwnedTable.hash(id, mask);
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = id + 1;
+            return slot;
+        }
+    }
+
+    private volatile Slots slots;
+    // slots with an id, held or not, guarded by lock
+    private int used;
+    // present ids, grown under lock before size is published
+    private volatile int[] ids;
+    private volatile int size;
+    private final ReentrantLock lock;
+
+    /**
+     * Create an empty table.
+     */
+    public DenseTable() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create an empty table sized for a number of ids.
+     * @param expected Number of ids expected to be held at once, the table grows past it
+     */
+    public DenseTable(int expected) {
+        slots = new Slots(slotsFor(expected));
+        used = 0;
+        ids = new int[Math.max(MIN_CAPACITY, expected)];
+        size = 0;
+        lock = new ReentrantLock();
+    }
+
+    // smallest power of 2 keeping count ids at most half full
+    private static int slotsFor(int count) {
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, count) * 2 - 1) * 2);
+    }
+
+    private static boolean isAbsent(float value) {
+        return Float.floatToRawIntBits(value) == Float.floatToRawIntBits(ABSENT);
+    }
+
+    private static boolean isMoved(float value) {
+        return Float.floatToRawIntBits(value) == Float.floatToRawIntBits(MOVED);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public float getValue(int id) {
+        for (;;) {
+            Slots s = slots;
+            int slot = s.find(id);
+            if (slot < 0) {
+                return 0f;
+            }
+            float value = (float) VALUES.getAcquire(s.values, slot);
+            if (!isMoved(value)) {
+                return isAbsent(value) ? 0f : value;
+            }
+        }
+    }
+
+    @Override
+    public boolean updatePair(int id, float newValue) {
+        for (;;) {
+            Slots s = slots;
+            int slot = s.find(id);
+            if (slot < 0) {
+                return false;
+            }
+            float value = (float) VALUES.getAcquire(s.values, slot);
+            if (isAbsent(value)) {
+                return false;
+            }
+            if (!isMoved(value) && VALUES.compareAndSet(s.values, slot, value, newValue)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public float addAndGet(int id, float delta) {
+        for (;;) {
+            Slots s = slots;
+            int slot = s.find(id);
+            float value = slot < 0 ? ABSENT : (float) VALUES.getAcquire(s.values, slot);
+            if (isMoved(value)) {
+                continue;
+            }
+            if (!isAbsent(value)) {
+                float newValue = value + delta;
+                if (VALUES.compareAndSet(s.values, slot, value, newValue)) {
+                    return newValue;
+                }
+                continue;
+            }
+            lock.lock();
+            try {
+                // only the thread holding the lock moves an id out of ABSENT
+                s = slots;
+                slot = s.find(id);
+                if (slot < 0) {
+                    if ((used + 1) * 2 > s.keys.length) {
+                        s = grow(s);
+                    }
+                    slot = s.insert(id);
+                    used++;
+                }
+                if (isAbsent(s.values[slot])) {
+                    int[] k = ids;
+                    // grow before publishing the new size so readers never index past the end
+                    if (size == k.length) {
+                        k = Arrays.copyOf(k, size * 2);
+                        ids = k;
+                    }
+                    s.positions[slot] = size;
+                    k[size] = id;
+                    VALUES.setRelease(s.values, slot, delta);
+                    size = size + 1;
+                    return delta;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // copy the ids of s into a table twice the size and publish it, only under lock
+    private Slots grow(Slots s) {
+        Slots next = new Slots(s.keys.length * 2);
+        for (int i = 0; i < s.keys.length; i++) {
+            if (s.keys[i] == 0) {
+                continue;
+            }
+            // seal the slot, carrying over any update that raced with the copy
+            float value = (float) VALUES.getAndSet(s.values, i, MOVED);
+            int slot = next.insert(s.keys[i] - 1);
+            if (!isAbsent(value)) {
+                next.values[slot] = value;
+                next.positions[slot] = s.positions[i];
+            }
+        }
+        slots = next;
+        return next;
+    }
+
+    @Override
+    public float remove(int id) {
+        lock.lock();
+        try {
+            Slots s = slots;
+            int slot = s.find(id);
+            if (slot < 0) {
+                return Float.NaN;
+            }
+            float value = (float) VALUES.getAndSet(s.values, slot, ABSENT);
+            if (isAbsent(value)) {
+                return Float.NaN;
+            }
+            // move the last id into the hole
+            int[] k = ids;
+            int position = s.positions[slot];
+            int last = size - 1;
+            int moved = k[last];
+            k[position] = moved;
+            s.positions[s.find(moved)] = position;
+            size = last;
+            return value;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int idAt(int position) {
+        return ids[position];
+    }
+
+    @Override
+    public int getRandomId() {
+        int n = size;
+        int[] k = ids;
+        if (n == 0) {
+            return -1;
+        }
+        return k[ThreadLocalRandom.current().nextInt(Math.min(n, k.length))];
+    }
+
+}
@@ -0,0 +1,11 @@
+package ConcurrentUtil;
+
+/**
+ * Operation on two float values producing a float, without boxing.
+ */
+@FunctionalInterface
+public interface FloatBinaryOperator {
+
+    float applyAsFloat(float left, float right);
+
+}
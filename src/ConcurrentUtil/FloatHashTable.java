@@ -0,0 +1,522 @@
+package ConcurrentUtil;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free open addressing map from tickers to primitive float prices.
+ * Tickers of up to 9 ASCII characters are packed into a long, so entries live in
+ * two flat arrays and lookups allocate nothing. Longer or non ASCII tickers are
+ * given a negative key from a side table.
+ * Key slots are claimed once and never cleared; a removed entry keeps its slot
+ * with an ABSENT value. Resizing is cooperative in the same way as HashTable.
+ * While a resize is in progress new keys still go to the old table, until the
+ * resize seals the empty slot they would take. A key therefore lives in only
+ * one table, and its copy in the new table is never written over. The new
+ * table takes no new keys until it is published, so the copies always fit;
+ * inserts that find their slot sealed help finish the copy and wait for it.
+ */
+public class FloatHashTable {
+
+    // value of a slot with no entry, or whose entry has been removed
+    private static final float ABSENT = Float.intBitsToFloat(0x7fc0_0002);
+    // value of a slot whose entry has been copied to a larger table
+    private static final float MOVED = Float.intBitsToFloat(0x7fc0_0001);
+    // key of an empty slot, and of an empty slot closed by a resize
+    private static final long EMPTY = 0L;
+    private static final long SEALED = Long.MIN_VALUE;
+    // number of slots an operation moves when it finds a resize in progress
+    private static final int TRANSFER_STRIDE = 16;
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(float[].class);
+
+    private static final class Table {
+        final long[] keys;
+        final float[] values;
+        final int shift;
+        final AtomicInteger used;
+        final AtomicInteger transferIndex;
+        final AtomicInteger transferCount;
+        volatile Table next;
+        static final VarHandle NEXT;
+        static {
+            try {
+                NEXT = MethodHandles.lookup().
+                        findVarHandle(Table.class, "next", Table.class);
+            }
+            catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new float[capacity];
+            Arrays.fill(values, ABSENT);
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+            used = new AtomicInteger(0);
+            transferIndex = new AtomicInteger(0);
+            transferCount = new AtomicInteger(0);
+        }
+        int indexOf(long key) {
+            // fibonacci hashing, packed tickers differ mostly in their low bits
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+    }
+
+    private volatile Table table;
+    private final AtomicInteger size;
+    private final ConcurrentHashMap<String, Long> overflowKeys;
+    private final ConcurrentHashMap<Long, String> overflowNames;
+    private final AtomicLong overflowCount;
+    private static final VarHandle TABLE;
+    static {
+        try {
+            TABLE = MethodHandles.lookup().
+                    findVarHandle(FloatHashTable.class, "table", Table.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * Create a new FloatHashTable.
+     */
+    public FloatHashTable() {
+        this(16);
+    }
+
+    /**
+     * Create a new FloatHashTable sized for a number of entries.
+     * @param expectedSize Number of entries to hold without resizing
+     */
+    public FloatHashTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+        table = new Table(capacity);
+        size = new AtomicInteger(0);
+        overflowKeys = new ConcurrentHashMap<>();
+        overflowNames = new ConcurrentHashMap<>();
+        overflowCount = new AtomicLong(0);
+    }
+
+    /**
+     * Pack a ticker of up to 9 ASCII characters into a long.
+     * @param ticker String ticker symbol
+     * @return Packed key, or zero if the ticker does not fit
+     */
+    public static long pack(String ticker) {
+        int length = ticker.length();
+        if (length == 0 || length > 9) {
+            return EMPTY;
+        }
+        long key = 0;
+        for (int i = 0; i < length; i++) {
+            char c = ticker.charAt(i);
+            if (c == 0 || c > 127) {
+                return EMPTY;
+            }
+            key = (key << 7) | c;
+        }
+        return key;
+    }
+
+    /**
+     * Get the ticker a key was made from.
+     * @param key Key returned by pack or keyOf
+     * @return String ticker symbol
+     */
+    public String unpack(long key) {
+        if (key < 0) {
+            return overflowNames.get(key);
+        }
+        char[] chars = new char[9];
+        int start = chars.length;
+        while (key != 0) {
+            chars[--start] = (char) (key & 0x7f);
+            key >>>= 7;
+        }
+        return new String(chars, start, chars.length - start);
+    }
+
+    /**
+     * Get the key for a ticker, giving tickers that cannot be packed a key of their own.
+     * @param ticker String ticker symbol
+     * @return Key for the ticker
+     */
+    public long keyOf(String ticker) {
+        long key = pack(ticker);
+        if (key != EMPTY) {
+            return key;
+        }
+        Long overflow = overflowKeys.get(ticker);
+        if (overflow != null) {
+            return overflow;
+        }
+        return overflowKeys.computeIfAbsent(ticker, t -> {
+            long id = -overflowCount.incrementAndGet();
+            overflowNames.put(id, t);
+            return id;
+        });
+    }
+
+    public int getSize() {
+        return size.get();
+    }
+
+    private static boolean isMoved(float value) {
+        return Float.floatToRawIntBits(value) == Float.floatToRawIntBits(MOVED);
+    }
+
+    private static boolean isAbsent(float value) {
+        return Float.floatToRawIntBits(value) == Float.floatToRawIntBits(ABSENT);
+    }
+
+    // get the current table, moving a few slots first if a resize is in progress
+    private Table current() {
+        Table t = table;
+        if (t.next != null) {
+            helpTransfer(t, TRANSFER_STRIDE);
+        }
+        return t;
+    }
+
+    // start a resize of t, doubling it unless most claimed slots hold removed entries
+    private void resize(Table t) {
+        if (t.next == null && t == table) {
+            int capacity = t.keys.length;
+            int newCapacity = size.get() >= capacity / 4 ? capacity * 2 : capacity;
+            Table.NEXT.compareAndSet(t, null, new Table(newCapacity));
+        }
+    }
+
+    // claim and copy up to count slots of t into t.next
+    private void helpTransfer(Table t, int count) {
+        Table next = t.next;
+        for (int n = 0; n < count; n++) {
+            int i = t.transferIndex.getAndIncrement();
+            if (i >= t.keys.length) {
+                return;
+            }
+            transfer(t, i, next);
+            // last slot copied, publish the new table
+            if (t.transferCount.incrementAndGet() == t.keys.length) {
+                TABLE.compareAndSet(this, t, next);
+            }
+        }
+    }
+
+    // copy slot i of t into next, then seal it so every operation moves on to next
+    private void transfer(Table t, int i, Table next) {
+        long key;
+        for (;;) {
+            key = (long) KEYS.getAcquire(t.keys, i);
+            if (key != EMPTY || KEYS.compareAndSet(t.keys, i, EMPTY, SEALED)) {
+                break;
+            }
+        }
+        if (key == EMPTY) {
+            return;
+        }
+        int j = -1;
+        for (;;) {
+            float value = (float) VALUES.getAcquire(t.values, i);
+            if (isAbsent(value)) {
+                if (VALUES.compareAndSet(t.values, i, value, MOVED)) {
+                    return;
+                }
+                continue;
+            }
+            // copy is published before the original is sealed
+            if (j < 0) {
+                j = probe(next, key, true);
+            }
+            VALUES.setRelease(next.values, j, value);
+            if (VALUES.compareAndSet(t.values, i, value, MOVED)) {
+                return;
+            }
+        }
+    }
+
+    // find the slot holding key in t, claiming an empty one if insert is true
+    // returns -1 if key is not in t, or its slot in t was sealed by a resize
+    private int probe(Table t, long key, boolean insert) {
+        int mask = t.keys.length - 1;
+        int i = t.indexOf(key);
+        for (int n = 0; n < t.keys.length; ) {
+            long k = (long) KEYS.getAcquire(t.keys, i);
+            if (k == key) {
+                return i;
+            }
+            // a sealed slot means key was never inserted further along, and slots
+            // never become empty again, so every thread inserting key moves on
+            if (k == SEALED) {
+                return -1;
+            }
+            if (k == EMPTY) {
+                if (!insert) {
+                    return -1;
+                }
+                // only the seal closes a slot: it fails this CAS, or is made after
+                // the key is claimed and then moves the key
+                if (KEYS.compareAndSet(t.keys, i, EMPTY, key)) {
+                    if (t.used.incrementAndGet() >= 0.75 * t.keys.length) {
+                        resize(t);
+                    }
+                    return i;
+                }
+                // lost the slot to another thread, look at it again
+                continue;
+            }
+            i = (i + 1) & mask;
+            n++;
+        }
+        // table is full
+        return -1;
+    }
+
+    // true once t has been published: a table stops being current only after its
+    // next table is set, so a table with neither is still the target of a resize
+    private boolean isOpen(Table t) {
+        return t == table || t.next != null;
+    }
+
+    // wait until t is published, copying the current table into it meanwhile
+    private void awaitOpen(Table t) {
+        while (!isOpen(t)) {
+            Table curr = table;
+            if (curr.next != null) {
+                helpTransfer(curr, curr.keys.length);
+            }
+            // the remaining slots are being copied by other threads
+            if (!isOpen(t)) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // find the table a new key goes to when probe cannot insert it into an open t
+    private Table nextTable(Table t) {
+        for (;;) {
+            Table next = t.next;
+            if (next != null) {
+                return next;
+            }
+            if (t != table) {
+                awaitOpen(t);
+                return t;
+            }
+            resize(t);
+        }
+    }
+
+    /**
+     * Check if a key has an entry in this table.
+     * @param key Packed key
+     * @return True if an entry is present
+     */
+    public boolean containsKey(long key) {
+        return !isAbsent(get(key, ABSENT));
+    }
+
+    /**
+     * Get the value associated with a key.
+     * @param key Packed key
+     * @param defaultValue Value to return if the key is not found
+     * @return The value, or defaultValue if it is not found
+     */
+    public float get(long key, float defaultValue) {
+        Table t = current();
+        for (;;) {
+            int i = probe(t, key, false);
+            if (i >= 0) {
+                float value = (float) VALUES.getAcquire(t.values, i);
+                if (!isMoved(value)) {
+                    return isAbsent(value) ? defaultValue : value;
+                }
+            }
+            // moved, or missing and possibly added to the new table during a resize
+            if (t.next == null) {
+                return defaultValue;
+            }
+            t = t.next;
+        }
+    }
+
+    /**
+     * Get the value associated with a String ticker.
+     * @param ticker String ticker to search for
+     * @return The value, or zero if it is not found
+     */
+    public float get(String ticker) {
+        return get(keyOf(ticker), 0f);
+    }
+
+    // apply value to the entry for key, adding it to the current value if add is true
+    private float update(long key, float value, boolean add) {
+        Table t = current();
+        for (;;) {
+            // keep the slots of an unpublished table for the copies
+            boolean open = isOpen(t);
+            int i = probe(t, key, open);
+            if (i < 0) {
+                if (open) {
+                    t = nextTable(t);
+                }
+                else {
+                    awaitOpen(t);
+                }
+                continue;
+            }
+            for (;;) {
+                float currValue = (float) VALUES.getAcquire(t.values, i);
+                if (isMoved(currValue)) {
+                    break;
+                }
+                boolean absent = isAbsent(currValue);
+                float newValue = add && !absent ? currValue + value : value;
+                if (VALUES.compareAndSet(t.values, i, currValue, newValue)) {
+                    if (absent) {
+                        size.incrementAndGet();
+                    }
+                    return newValue;
+                }
+            }
+            t = t.next;
+        }
+    }
+
+    /**
+     * Set the value associated with a key, adding the entry if it is missing.
+     * @param key Packed key
+     * @param value New value
+     */
+    public void put(long key, float value) {
+        update(key, value, false);
+    }
+
+    /**
+     * Set the value associated with a String ticker, adding the entry if it is missing.
+     * @param ticker String ticker
+     * @param value New value
+     */
+    public void put(String ticker, float value) {
+        update(keyOf(ticker), value, false);
+    }
+
+    /**
+     * Add to the value associated with a key, inserting it if it is missing.
+     * @param key Packed key
+     * @param delta Value to add
+     * @return The value after the addition
+     */
+    public float addAndGet(long key, float delta) {
+        return update(key, delta, true);
+    }
+
+    /**
+     * Add to the value associated with a String ticker, inserting it if it is missing.
+     * @param ticker String ticker
+     * @param delta Value to add
+     * @return The value after the addition
+     */
+    public float addAndGet(String ticker, float delta) {
+        return update(keyOf(ticker), delta, true);
+    }
+
+    /**
+     * Remove the entry for a key.
+     * @param key Packed key
+     * @return True if removal is successful
+     */
+    public boolean remove(long key) {
+        Table t = current();
+        for (;;) {
+            int i = probe(t, key, false);
+            if (i >= 0) {
+                for (;;) {
+                    float currValue = (float) VALUES.getAcquire(t.values, i);
+                    if (isMoved(currValue)) {
+                        break;
+                    }
+                    if (isAbsent(currValue)) {
+                        return false;
+                    }
+                    if (VALUES.compareAndSet(t.values, i, currValue, ABSENT)) {
+                        size.decrementAndGet();
+                        return true;
+                    }
+                }
+            }
+            if (t.next == null) {
+                return false;
+            }
+            t = t.next;
+        }
+    }
+
+    /**
+     * Remove the entry for a String ticker.
+     * @param ticker String ticker
+     * @return True if removal is successful
+     */
+    public boolean remove(String ticker) {
+        return remove(keyOf(ticker));
+    }
+
+    /**
+     * Get the set of all tickers in this table.
+     * @return The set of all tickers in this table
+     */
+    public Set<String> getKeys() {
+        Set<String> keys = new TreeSet<>();
+        for (Table t = table; t != null; t = t.next) {
+            for (int i = 0; i < t.keys.length; i++) {
+                long key = (long) KEYS.getAcquire(t.keys, i);
+                float value = (float) VALUES.getAcquire(t.values, i);
+                if (key != EMPTY && key != SEALED && !isAbsent(value) && !isMoved(value)) {
+                    keys.add(unpack(key));
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Randomly modify all values with gaussian distributed values.
+     * Any resize in progress is finished first so every entry is modified once.
+     */
+    public void modifyValues() {
+        Table t = table;
+        while (t.next != null) {
+            helpTransfer(t, t.keys.length);
+            Thread.onSpinWait();
+            t = table;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < t.values.length; i++) {
+            float delta = Float.NaN;
+            for (;;) {
+                float currValue = (float) VALUES.getAcquire(t.values, i);
+                if (isAbsent(currValue) || isMoved(currValue)) {
+                    break;
+                }
+                // only draw a value for slots that hold an entry
+                if (Float.isNaN(delta)) {
+                    delta = (float) random.nextGaussian();
+                }
+                if (VALUES.compareAndSet(t.values, i, currValue, currValue + delta)) {
+                    break;
+                }
+            }
+        }
+    }
+
+}
@@ -1,75 +1,158 @@
 package ConcurrentUtil;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
-import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class HashTable {
 
-    private LinkedList[] nodes;
-    private int size;
-    private int maxCapacity;
-    private ReadWriteLock lock;
+    // number of buckets an operation moves when it finds a resize in progress
+    private static final int TRANSFER_STRIDE = 2;
+    // times a thread waiting on a bucket being copied spins before it yields
+    private static final int SPINS = 64;
+    // buckets this long or shorter are sampled without bias by getRandom,
+    // about 99% of entries at the highest load factor
+    private static final int CHAIN = 4;
+
+    private static final class Table {
+        final LinkedList[] buckets;
+        // 1 once a bucket has been copied into next
+        final AtomicIntegerArray transferred;
+        final AtomicInteger transferIndex;
+        final AtomicInteger transferCount;
+        volatile Table next;
+        static final VarHandle NEXT;
+        static {
+            try {
+                NEXT = MethodHandles.lookup().
+                        findVarHandle(Table.class, "next", Table.class);
+            }
+            catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+        Table(int capacity) {
+            buckets = new LinkedList[capacity];
+            Arrays.setAll(buckets, e -> new LinkedList());
+            transferred = new AtomicIntegerArray(capacity);
+            transferIndex = new AtomicInteger(0);
+            transferCount = new AtomicInteger(0);
+        }
+        int indexOf(String key) {
+            // equivalent to hash % buckets.length for lengths equal to powers of 2
+            return key.hashCode() & (buckets.length - 1);
+        }
+        boolean isTransferred(int index) {
+            return transferred.get(index) == 1;
+        }
+    }
+
+    private volatile Table table;
+    private final AtomicInteger size;
+    private static final VarHandle TABLE;
+    static {
+        try {
+            TABLE = MethodHandles.lookup().
+                    findVarHandle(HashTable.class, "table", Table.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
 
     public HashTable() {
-        maxCapacity = 16;
-        nodes = new LinkedList[maxCapacity];
-        Arrays.setAll(nodes, e -> new LinkedList());
-        size = 0;
-        lock = new ReentrantReadWriteLock();
+        table = new Table(16);
+        size = new AtomicInteger(0);
     }
 
     public int getSize() {
-        return size;
+        return size.get();
     }
 
-    private void addToArray(String key, float value, LinkedList[] nodeArray) throws InterruptedException {
-        int hash = key.hashCode();
-        // equivalent to hash % nodeArray.length for lengths equal to powers of 2
-        int index = hash & (nodeArray.length - 1);
-        Optional<Float> keyValue = nodeArray[index].getValue(key);
-        // if key is not in ConcurrentUtil.LinkedList, add it
-        if (!keyValue.isPresent()) {
-            nodeArray[index].add(key, value);
-            size++;
-            // resize if size >= 75% capacity
-            if (size >= 0.75*maxCapacity) {
-                resize();
+    // get the current table, moving a few buckets first if a resize is in progress
+    private Table current() {
+        Table t = table;
+        if (t.next != null) {
+            helpTransfer(t, TRANSFER_STRIDE);
+        }
+        return t;
+    }
+
+    // start a resize of t into a table with double the buckets, unless one is running
+    private void resize(Table t) {
+        if (t.next == null && t == table) {
+            Table.NEXT.compareAndSet(t, null, new Table(t.buckets.length * 2));
+        }
+    }
+
+    // claim and copy up to count buckets of t into t.next
+    private void helpTransfer(Table t, int count) {
+        Table next = t.next;
+        for (int n = 0; n < count; n++) {
+            int i = t.transferIndex.getAndIncrement();
+            if (i >= t.buckets.length) {
+                return;
+            }
+            t.buckets[i].transferTo(next.buckets);
+            t.transferred.set(i, 1);
+            // last bucket copied, publish the new table
+            if (t.transferCount.incrementAndGet() == t.buckets.length) {
+                TABLE.compareAndSet(this, t, next);
+            }
+        }
+    }
+
+    // wait until bucket i of t has been copied, its entries are in neither table meanwhile
+    private void awaitTransfer(Table t, int i) {
+        for (int spins = 0; !t.isTransferred(i); spins++) {
+            helpTransfer(t, 1);
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            }
+            else {
+                Thread.yield();
             }
         }
-        // key is already in hashtable, add value
-        else {
-            nodeArray[index].addValue(key, value);
+    }
+
+    // wait until every bucket of t has been copied
+    private void finishTransfer(Table t) {
+        for (int i = 0; i < t.buckets.length; i++) {
+            awaitTransfer(t, i);
         }
     }
 
-    // create new nodes array with double the size, re-add nodes
-    private void resize() throws InterruptedException {
-        lock.readLock().unlock();
-        lock.writeLock().lock();
-        try {
-            maxCapacity *= 2;
-            size = 0;
-            LinkedList[] newNodes = new LinkedList[maxCapacity];
-            Arrays.setAll(newNodes, e -> new LinkedList());
-            for (LinkedList list : nodes) {
-                list.getEntries().forEach((e) -> {
-                    try {
-                        addToArray(e.key, e.value, newNodes);
-                    } catch (InterruptedException e1) {
-                        e1.printStackTrace();
+    // apply LinkedList.upsert to the bucket holding key, following any resize
+    private float upsert(String key, float value, FloatBinaryOperator remap,
+                         ToFloatFunction<String> mapping) {
+        Table t = current();
+        for (;;) {
+            int index = t.indexOf(key);
+            if (t.isTransferred(index)) {
+                t = t.next;
+                continue;
+            }
+            // new keys go to the old table until their bucket is frozen, so a key
+            // is only ever in one of the two tables
+            long result = t.buckets[index].upsert(key, value, remap, mapping);
+            switch (LinkedList.status(result)) {
+                case LinkedList.INSERTED:
+                    // resize if size >= 75% capacity
+                    if (size.incrementAndGet() >= 0.75 * t.buckets.length) {
+                        resize(t);
                     }
-                });
+                    return LinkedList.value(result);
+                case LinkedList.UPDATED:
+                    return LinkedList.value(result);
+                default:
+                    awaitTransfer(t, index);
+                    t = t.next;
             }
-            nodes = newNodes;
-        }
-        finally {
-            lock.writeLock().unlock();
-            lock.readLock().lock();
         }
     }
 
@@ -78,35 +161,147 @@ public class HashTable {
      * @return The set of all keys in this Hash Table
      */
     public Set<String> getKeys() throws InterruptedException {
-        lock.readLock().lock();
-        try {
-            Set<String> keys = new TreeSet<>();
-            for (LinkedList list : nodes) {
-                keys.addAll(list.getKeys());
+        Set<String> keys = new TreeSet<>();
+        for (Table t = table; t != null; t = t.next) {
+            for (int i = 0; i < t.buckets.length; i++) {
+                if (!t.isTransferred(i)) {
+                    keys.addAll(t.buckets[i].getKeys());
+                }
+            }
+            // entries taken out of t may not be in t.next until t is fully copied
+            if (t.next != null) {
+                finishTransfer(t);
             }
-            return keys;
         }
-        finally {
-            lock.readLock().unlock();
+        return keys;
+    }
+
+    /**
+     * Create a cursor over the entries of this Hash Table. A cursor can be reset
+     * and reused, so walking the table allocates nothing.
+     * @return A cursor positioned before the first entry
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reusable, weakly consistent walk over the entries of a HashTable. Entries
+     * added or removed during the walk may or may not be visited, and an entry
+     * copied by a concurrent resize may be visited twice.
+     * Removed entries are not recycled until a walk finishes or is reset, so a
+     * walk must be finished or reset by the thread that started it.
+     */
+    public final class Cursor {
+        private Table t;
+        private int bucket;
+        private LinkedList.Node node;
+        private float value;
+        // true while walking, the nodes held must not be recycled
+        private boolean walking;
+
+        private Cursor() {
+            reset();
+        }
+
+        /**
+         * Move back before the first entry of the current table.
+         */
+        public void reset() {
+            if (walking) {
+                walking = false;
+                LinkedList.NODES.exit();
+            }
+            t = table;
+            bucket = -1;
+            node = null;
+        }
+
+        /**
+         * Move to the next entry.
+         * @return True if there is an entry, false once the walk is done
+         */
+        public boolean next() {
+            if (!walking) {
+                if (bucket != -1) {
+                    return false;
+                }
+                walking = true;
+                LinkedList.NODES.enter();
+            }
+            if (node != null) {
+                node = live(LinkedList.next(node));
+            }
+            while (node == null) {
+                // follow a resize in progress into the new table
+                if (++bucket == t.buckets.length) {
+                    if (t.next == null) {
+                        walking = false;
+                        LinkedList.NODES.exit();
+                        return false;
+                    }
+                    // entries taken out of t may not be in t.next until t is fully copied
+                    finishTransfer(t);
+                    t = t.next;
+                    bucket = 0;
+                }
+                if (!t.isTransferred(bucket)) {
+                    node = live(t.buckets[bucket].first());
+                }
+            }
+            return true;
+        }
+
+        // skip entries sealed by a resize, they are visited in the new table instead
+        private LinkedList.Node live(LinkedList.Node node) {
+            while (node != null) {
+                value = LinkedList.valueOf(node);
+                if (!LinkedList.isMoved(value)) {
+                    return node;
+                }
+                node = LinkedList.next(node);
+            }
+            return null;
+        }
+
+        public String getKey() {
+            return LinkedList.keyOf(node);
+        }
+
+        /**
+         * Get the value of the current entry when the cursor reached it.
+         * @return The value
+         */
+        public float getValue() {
+            return value;
         }
     }
 
     /**
      * Get the value associated with String key
      * @param key String key to search for
-     * @return Optional containing the value or nothing if it is not found
+     * @return The value, or zero if it is not found
      */
     public float getValue(String key) throws InterruptedException {
-        lock.readLock().lock();
-        try {
-            int hash = key.hashCode();
-            // equivalent to hash % nodes.length for lengths equal to powers of 2
-            int index = hash & (nodes.length - 1);
-            Optional<Float> value = nodes[index].getValue(key);
-            return value.orElse(0f);
-        }
-        finally {
-            lock.readLock().unlock();
+        Table t = current();
+        for (;;) {
+            int index = t.indexOf(key);
+            if (t.isTransferred(index)) {
+                t = t.next;
+                continue;
+            }
+            LinkedList list = t.buckets[index];
+            float value = list.get(key);
+            if (!LinkedList.isAbsent(value) && !LinkedList.isMoved(value)) {
+                return value;
+            }
+            // moved, or missing from a frozen bucket being moved
+            if (list.isFrozen()) {
+                awaitTransfer(t, index);
+                t = t.next;
+                continue;
+            }
+            return 0f;
         }
     }
 
@@ -117,68 +312,160 @@ public class HashTable {
      * @throws InterruptedException Thread is interrupted
      */
     public void updatePair(String key, float newValue) throws InterruptedException {
-        lock.readLock().lock();
-        try {
-            int hash = key.hashCode();
-            int index = hash & (nodes.length - 1);
-            nodes[index].setValue(key, newValue);
-        }
-        finally {
-            lock.readLock().unlock();
+        Table t = current();
+        for (;;) {
+            int index = t.indexOf(key);
+            if (t.isTransferred(index)) {
+                t = t.next;
+                continue;
+            }
+            LinkedList list = t.buckets[index];
+            if (list.setValue(key, newValue) || !list.isFrozen()) {
+                return;
+            }
+            awaitTransfer(t, index);
+            t = t.next;
         }
     }
 
     /**
      * Modify the value of all stocks.
+     * Any resize in progress is finished first, but a resize started while the
+     * values are modified may move entries before they are reached, and those
+     * are left unmodified. No entry is modified twice.
      * @throws InterruptedException Thread is interrupted
      */
     public void modifyValues() throws InterruptedException {
-        lock.readLock().lock();
-        try {
-            for (int i = 0; i < nodes.length; i++) {
-                nodes[i].modifyValues();
+        Table t = table;
+        while (t.next != null) {
+            helpTransfer(t, t.buckets.length);
+            Thread.onSpinWait();
+            t = table;
+        }
+        for (int i = 0; i < t.buckets.length; i++) {
+            t.buckets[i].modifyValues();
+        }
+    }
+
+    // Pick a random live node: a random bucket, then a random entry of it,
+    // trying other buckets until one is kept. Entries in buckets longer than
+    // CHAIN are picked a little less often than the others, which are all
+    // equally likely. Only call between NODES.enter and NODES.exit.
+    private LinkedList.Node randomNode() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (size.get() > 0) {
+            Table t = table;
+            Table next = t.next;
+            // while a resize is in progress pick a bucket of the new table, an old
+            // bucket not yet copied stands in for it with only its share of entries
+            int index = random.nextInt(next == null ? t.buckets.length : next.buckets.length);
+            int old = index & (t.buckets.length - 1);
+            boolean split = next != null && !t.isTransferred(old);
+            LinkedList list = next == null ? t.buckets[index] : split ? t.buckets[old] : next.buckets[index];
+            LinkedList.Node picked = null;
+            int seen = 0;
+            for (LinkedList.Node node = list.first(); node != null; node = LinkedList.next(node)) {
+                if (split && next.indexOf(LinkedList.keyOf(node)) != index) {
+                    continue;
+                }
+                // keep each of the first n entries with probability 1/n
+                if (!LinkedList.isMoved(LinkedList.valueOf(node)) && random.nextInt(++seen) == 0) {
+                    picked = node;
+                }
             }
+            // keep a bucket of n entries with probability min(n, CHAIN) / CHAIN, so
+            // every entry of a bucket no longer than CHAIN is equally likely
+            if (picked != null && (seen >= CHAIN || random.nextInt(CHAIN) < seen)) {
+                return picked;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get a random key from this Hash Table, in constant expected time and
+     * without locking or allocating. Every key is about equally likely.
+     * @return A key, or null if the table is empty
+     */
+    public String getRandomKey() {
+        LinkedList.NODES.enter();
+        try {
+            LinkedList.Node node = randomNode();
+            return node == null ? null : LinkedList.keyOf(node);
         }
         finally {
-            lock.readLock().unlock();
+            LinkedList.NODES.exit();
         }
     }
 
     /**
      * Get a random key value pairing from this Hash Table.
-     * @return A key value pair
+     * @return A key value pair, or null if the table is empty
      * @throws InterruptedException Thread is interrupted
      */
     public Tuple<String, Float> getRandom() throws InterruptedException {
-        lock.readLock().lock();
+        String key;
+        float value;
+        LinkedList.NODES.enter();
         try {
-            for (;;) {
-                int i = ThreadLocalRandom.current().nextInt(nodes.length);
-                Tuple<String, Float> tuple = nodes[i].getRandom();
-                // make sure there was actually a value
-                if (tuple != null) {
-                    return tuple;
-                }
+            LinkedList.Node node = randomNode();
+            if (node == null) {
+                return null;
             }
+            key = LinkedList.keyOf(node);
+            value = LinkedList.valueOf(node);
         }
         finally {
-            lock.readLock().unlock();
+            LinkedList.NODES.exit();
+        }
+        // moved since it was picked, read it from the new table
+        if (LinkedList.isMoved(value)) {
+            value = getValue(key);
         }
+        return new Tuple<>(key, value);
     }
 
     /**
-     * Add a key value pair to the Hash Table
+     * Add a key value pair to the Hash Table, adding value to the current value
+     * if key is already present.
      * @param key String key to add
      * @param value floating point value to add
      */
     public void add(String key, float value) throws InterruptedException {
-        lock.readLock().lock();
-        try {
-            addToArray(key, value, this.nodes);
-        }
-        finally {
-            lock.readLock().unlock();
-        }
+        upsert(key, value, Float::sum, null);
+    }
+
+    /**
+     * Atomically add to the value associated with key, inserting it if it is missing.
+     * @param key String key to update
+     * @param delta Value to add
+     * @return The value after the addition
+     */
+    public float addAndGet(String key, float delta) {
+        return upsert(key, delta, Float::sum, null);
+    }
+
+    /**
+     * Atomically combine a value with the value associated with key, or insert
+     * it if key is missing. remap may be called more than once under contention.
+     * @param key String key to update
+     * @param value Value to insert or combine
+     * @param remap Function of the current value and value
+     * @return The value associated with key afterwards
+     */
+    public float merge(String key, float value, FloatBinaryOperator remap) {
+        return upsert(key, value, remap, null);
+    }
+
+    /**
+     * Get the value associated with key, atomically inserting mapping(key) if it
+     * is missing. mapping may be called more than once under contention.
+     * @param key String key to search for
+     * @param mapping Function computing the value of a missing key
+     * @return The current or inserted value
+     */
+    public float computeIfAbsent(String key, ToFloatFunction<String> mapping) {
+        return upsert(key, 0f, null, mapping);
     }
 
     /**
@@ -187,19 +474,24 @@ public class HashTable {
      * @return True if removal is successful
      */
     public boolean remove(String key) throws InterruptedException {
-        lock.readLock().lock();
-        try {
-            int hash = key.hashCode();
-            // equivalent to hash % nodes.length for lengths equal to powers of 2
-            int index = hash & (nodes.length - 1);
-            boolean success = nodes[index].remove(key);
-            if (success) {
-                size--;
+        Table t = current();
+        for (;;) {
+            int index = t.indexOf(key);
+            if (t.isTransferred(index)) {
+                t = t.next;
+                continue;
             }
-            return success;
-        }
-        finally {
-            lock.readLock().unlock();
+            LinkedList list = t.buckets[index];
+            // an entry is removed or moved by marking it, so only one of the two wins
+            if (list.remove(key)) {
+                size.decrementAndGet();
+                return true;
+            }
+            if (!list.isFrozen()) {
+                return false;
+            }
+            awaitTransfer(t, index);
+            t = t.next;
         }
     }
 
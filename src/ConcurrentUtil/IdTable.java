@@ -0,0 +1,54 @@
+package ConcurrentUtil;
+
+/**
+ * Map from non-negative ids to float values, as used for a trader's holdings.
+ * Tables grow with the number of ids held, not with the range of ids. Implementations differ in which threads may use them.
+ */
+public interface IdTable {
+
+    int getSize();
+
+    /**
+     * Get the value associated with an id.
+     * @param id Id to search for
+     * @return The value, or zero if it is not present
+     */
+    float getValue(int id);
+
+    /**
+     * Set the value of an id that is already present.
+     * @param id Id to update
+     * @param newValue New value
+     * @return True if the id was present
+     */
+    boolean updatePair(int id, float newValue);
+
+    /**
+     * Add to the value of an id, inserting it if it is missing.
+     * @param id Id to update
+     * @param delta Value to add
+     * @return The value after the addition
+     */
+    float addAndGet(int id, float delta);
+
+    /**
+     * Remove an id.
+     * @param id Id to remove
+     * @return The removed value, or NaN if the id was not present
+     */
+    float remove(int id);
+
+    /**
+     * Get the id at a position of the dense list, for iterating over present ids.
+     * @param position Position in [0, getSize())
+     * @return An id
+     */
+    int idAt(int position);
+
+    /**
+     * Get a uniformly random present id.
+     * @return An id, or -1 if the table is empty
+     */
+    int getRandomId();
+
+}
@@ -6,10 +6,30 @@ import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicMarkableReference;
 
+/**
+ * Lock-free unordered list of keys and values in the style of Harris and
+ * Michael. A node is removed by marking its next reference, which freezes it,
+ * and then unlinked from its predecessor. Every traversal helps by unlinking
+ * the marked nodes it passes, so removed nodes never pile up in the list.
+ * Keys are unique: inserts prepend at the head only if the head is unchanged
+ * since a search found no live node with the key.
+ */
 public class LinkedList {
 
-    private static final class Node {
-        final String key;
+    // Value of a node whose entry has been copied to a larger table by a resize.
+    // A quiet NaN with a payload, so it never collides with a real price.
+    static final float MOVED = Float.intBitsToFloat(0x7fc0_0001);
+    // Value returned by get for a key that is not in the list.
+    static final float ABSENT = Float.intBitsToFloat(0x7fc0_0002);
+
+    // status codes returned by upsert
+    static final int UPDATED = 0;
+    static final int INSERTED = 1;
+    static final int REDIRECT = 2;
+
+    static final class Node {
+        // only changed while the node is unreachable, before it is published again
+        String key;
         volatile float value;
         static final VarHandle VALUE;
         AtomicMarkableReference<Node> next;
@@ -29,6 +49,10 @@ public class LinkedList {
         }
     }
 
+    // nodes of every list, recycled once no thread can still be reading them.
+    // Every method that reads nodes runs between NODES.enter and NODES.exit
+    static final NodePool<Node> NODES = new NodePool<>(Node.class);
+
     private volatile AtomicMarkableReference<Node> head;
 
     /**
@@ -38,20 +62,61 @@ public class LinkedList {
         head = new AtomicMarkableReference<>(null, false);
     }
 
+    // a recycled node if this thread has one, only call between enter and exit
+    private static Node newNode(String key, float value, Node next) {
+        Node node = NODES.take();
+        if (node == null) {
+            return new Node(key, value, next);
+        }
+        node.key = key;
+        node.value = value;
+        node.next.set(next, false);
+        return node;
+    }
+
+    /**
+     * Check if a value read from this list belongs to an entry moved by a resize.
+     * @param value Value returned by this list
+     * @return True if the entry now lives in another table
+     */
+    static boolean isMoved(float value) {
+        return Float.floatToRawIntBits(value) == Float.floatToRawIntBits(MOVED);
+    }
+
+    /**
+     * Check if a value read from this list means the key was not found.
+     * @param value Value returned by get
+     * @return True if the key is not in this list
+     */
+    static boolean isAbsent(float value) {
+        return Float.floatToRawIntBits(value) == Float.floatToRawIntBits(ABSENT);
+    }
+
+    /**
+     * Check if this list has been frozen by a resize.
+     * @return True if no more entries can be added to this list
+     */
+    public boolean isFrozen() {
+        return head.isMarked();
+    }
+
     /**
      * Get a set containing all the keys in this linked list.
      * @return The set containing all keys in this linked list
      */
     public Set<String> getKeys() {
-        Set<String> keySet = new TreeSet<>();
-        // set current to head
-        Node curr = head.getReference();
-        // for each node, add to set
-        while (curr != null) {
-            keySet.add(curr.key);
-            curr = curr.next.getReference();
+        NODES.enter();
+        try {
+            Set<String> keySet = new TreeSet<>();
+            // for each live node, add to set
+            for (Node curr = liveAfter(null); curr != null; curr = liveAfter(curr)) {
+                keySet.add(curr.key);
+            }
+            return keySet;
+        }
+        finally {
+            NODES.exit();
         }
-        return keySet;
     }
 
     /**
@@ -59,13 +124,17 @@ public class LinkedList {
      * @return The set containing all key value pairings in this linked list
      */
     public List<Tuple<String, Float>> getEntries() {
-        List<Tuple<String, Float>> entries = new ArrayList<>();
-        Node curr = head.getReference();
-        while (curr != null) {
-            entries.add(new Tuple<>(curr.key, curr.value));
-            curr = curr.next.getReference();
+        NODES.enter();
+        try {
+            List<Tuple<String, Float>> entries = new ArrayList<>();
+            for (Node curr = liveAfter(null); curr != null; curr = liveAfter(curr)) {
+                entries.add(new Tuple<>(curr.key, curr.value));
+            }
+            return entries;
+        }
+        finally {
+            NODES.exit();
         }
-        return entries;
     }
 
     /**
@@ -74,38 +143,92 @@ public class LinkedList {
      * @return Optional containing the value or nothing if it is not found
      */
     public Optional<Float> getValue(String key) {
-        // set current to head
-        Node curr = head.getReference();
-        // search for node matching key
-        while (curr != null) {
-            // match is found, return value
-            if (curr.key.equals(key)) {
-                return Optional.of((float)Node.VALUE.getAcquire(curr));
-            }
+        NODES.enter();
+        try {
+            Node curr = find(key);
+            // reached end of list, key is not in this
+            return curr == null ? Optional.empty() : Optional.of((float) Node.VALUE.getAcquire(curr));
+        }
+        finally {
+            NODES.exit();
+        }
+    }
+
+    /**
+     * Get the value associated with key without allocating.
+     * @param key String key to search for
+     * @return The value, MOVED if the entry was moved by a resize, or ABSENT
+     */
+    float get(String key) {
+        NODES.enter();
+        try {
+            Node curr = find(key);
+            return curr == null ? ABSENT : (float) Node.VALUE.getAcquire(curr);
+        }
+        finally {
+            NODES.exit();
+        }
+    }
+
+    /**
+     * Get the first live node of this list, for walking it without allocating.
+     * The walk must run between NODES.enter and NODES.exit.
+     * @return A node, or null if the list is empty
+     */
+    Node first() {
+        return live(head.getReference());
+    }
+
+    /**
+     * Get the live node following a node.
+     * @param node Node returned by first or next
+     * @return A node, or null at the end of the list
+     */
+    static Node next(Node node) {
+        return live(node.next.getReference());
+    }
+
+    // skip nodes marked as removed
+    private static Node live(Node curr) {
+        while (curr != null && curr.next.isMarked()) {
             curr = curr.next.getReference();
         }
-        // reached end of list, key is not in this
-        return Optional.empty();
+        return curr;
+    }
+
+    static String keyOf(Node node) {
+        return node.key;
+    }
+
+    static float valueOf(Node node) {
+        return (float) Node.VALUE.getAcquire(node);
     }
 
     /**
      * Set a new value for a key.
      * @param key String key to search for
      * @param newValue New float value to update to
+     * @return True if entry is found and updated, false if it is missing or moved
      */
-    public void setValue(String key, float newValue) {
-        // set current to head
-        Node curr = head.getReference();
-        // search for node matching key
-        while (curr != null) {
-            float currValue = (float) Node.VALUE.getAcquire(curr);
-            // match is found, update value
-            if (curr.key.equals(key)) {
+    public boolean setValue(String key, float newValue) {
+        NODES.enter();
+        try {
+            Node curr = find(key);
+            if (curr == null) {
+                return false;
+            }
+            for (;;) {
+                float currValue = (float) Node.VALUE.getAcquire(curr);
+                if (isMoved(currValue)) {
+                    return false;
+                }
                 if (Node.VALUE.compareAndSet(curr, currValue, newValue)) {
-                    return;
+                    return true;
                 }
             }
-            curr = curr.next.getReference();
+        }
+        finally {
+            NODES.exit();
         }
     }
 
@@ -116,46 +239,211 @@ public class LinkedList {
      * @return True if entry is found and modification made
      */
     public boolean addValue(String key, float value) {
-        // set current to head
-        Node curr = head.getReference();
-        // search for node matching key
-        while (curr != null) {
-            // match is found, update value
-            if (curr.key.equals(key)) {
-                Node.VALUE.getAndAdd(curr, value);
-                return true;
+        NODES.enter();
+        try {
+            Node curr = find(key);
+            // Key not found in linked list
+            if (curr == null) {
+                return false;
             }
-            curr = curr.next.getReference();
+            // CAS loop rather than getAndAdd so a moved entry is never overwritten
+            for (;;) {
+                float currValue = (float) Node.VALUE.getAcquire(curr);
+                if (isMoved(currValue)) {
+                    return false;
+                }
+                if (Node.VALUE.compareAndSet(curr, currValue, currValue + value)) {
+                    return true;
+                }
+            }
+        }
+        finally {
+            NODES.exit();
         }
-        // Key not found in linked list
-        return false;
     }
 
     /**
      * Modify the value of all key value pairs in this Linked List.
      */
     public void modifyValues() {
-        // set current to head
-        Node curr = head.getReference();
-        // modify value for each
-        while (curr != null) {
-            curr.value += ThreadLocalRandom.current().nextGaussian();
-            curr = curr.next.getReference();
+        NODES.enter();
+        try {
+            // modify value for each live node
+            for (Node curr = liveAfter(null); curr != null; curr = liveAfter(curr)) {
+                float delta = (float) ThreadLocalRandom.current().nextGaussian();
+                for (;;) {
+                    float currValue = (float) Node.VALUE.getAcquire(curr);
+                    if (isMoved(currValue)
+                            || Node.VALUE.compareAndSet(curr, currValue, currValue + delta)) {
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            NODES.exit();
         }
     }
 
     /**
-     * Prepend a key and value pair to the linked list.
+     * Prepend a key and value pair to the linked list, unless the key is present.
      * @param key String key to add
      * @param value floating point value to add
+     * @return True if added, false if the key is present or this list has been
+     *         frozen by a resize
      */
-    public void add(String key, float value) {
+    public boolean add(String key, float value) {
+        NODES.enter();
+        try {
+            Node newNode = null;
+            for (;;) {
+                Node headRef = head.getReference();
+                // a marked head means the list is frozen, the caller must use the new table
+                if (head.isMarked()) {
+                    return false;
+                }
+                if (find(key) != null) {
+                    return false;
+                }
+                if (newNode == null) {
+                    newNode = newNode(key, value, headRef);
+                }
+                else {
+                    newNode.next.set(headRef, false);
+                }
+                // fails if anything was prepended or the head unlinked since the search
+                if (head.compareAndSet(headRef, newNode, false, false)) {
+                    return true;
+                }
+            }
+        }
+        finally {
+            NODES.exit();
+        }
+    }
+
+    /**
+     * Atomically update or insert the entry for key in a single traversal.
+     * A present entry is replaced with remap(current, value), or left unchanged if
+     * remap is null. A missing entry is inserted with mapping(key), or value if
+     * mapping is null. The head is only swung if it is unchanged since the
+     * traversal, so two threads can never insert the same key. The head is
+     * only swung while the list is not frozen, so once a resize has frozen
+     * the list every insert into it fails and goes to the new table instead.
+     * @param key String key to update
+     * @param value Argument passed to remap, or the value to insert
+     * @param remap Combines the current value and value, may be null
+     * @param mapping Computes the value of a missing entry, may be null
+     * @return Status and resulting value, read with status() and value()
+     */
+    long upsert(String key, float value, FloatBinaryOperator remap,
+                ToFloatFunction<String> mapping) {
+        NODES.enter();
+        try {
+            Node newNode = null;
+            for (;;) {
+                Node headRef = head.getReference();
+                boolean frozen = head.isMarked();
+                // search for node matching key
+                Node curr = find(key);
+                if (curr != null) {
+                    for (;;) {
+                        float currValue = (float) Node.VALUE.getAcquire(curr);
+                        if (isMoved(currValue)) {
+                            return result(REDIRECT, currValue);
+                        }
+                        if (remap == null) {
+                            return result(UPDATED, currValue);
+                        }
+                        float newValue = remap.applyAsFloat(currValue, value);
+                        if (Node.VALUE.compareAndSet(curr, currValue, newValue)) {
+                            return result(UPDATED, newValue);
+                        }
+                    }
+                }
+                // missing, and new keys go to the larger table
+                if (frozen) {
+                    return result(REDIRECT, MOVED);
+                }
+                if (newNode == null) {
+                    newNode = newNode(key, mapping == null ? value : mapping.applyAsFloat(key), headRef);
+                }
+                else {
+                    newNode.next.set(headRef, false);
+                }
+                // fails if anything was prepended or the head unlinked, search again
+                if (head.compareAndSet(headRef, newNode, false, false)) {
+                    return result(INSERTED, newNode.value);
+                }
+            }
+        }
+        finally {
+            NODES.exit();
+        }
+    }
+
+    private static long result(int status, float value) {
+        return ((long) status << 32) | (Float.floatToRawIntBits(value) & 0xffffffffL);
+    }
+
+    static int status(long result) {
+        return (int) (result >>> 32);
+    }
+
+    static float value(long result) {
+        return Float.intBitsToFloat((int) result);
+    }
+
+    /**
+     * Move every live entry of this list into the bucket array of a larger table.
+     * The list is frozen first so no entries can be prepended behind the move.
+     * Each entry is taken out by marking it, as remove does, so an entry is
+     * either removed or moved, never both. Its value is then sealed with MOVED
+     * so late updates fail, and only then is the copy published, holding the
+     * final value. Until the caller marks the list transferred, a thread that
+     * is sent on to the new table must wait for it.
+     * Only one thread may transfer a given list.
+     * @param target Bucket array of the new table, a power of 2 in length
+     */
+    void transferTo(LinkedList[] target) {
+        NODES.enter();
+        try {
+            // freeze by marking the head reference
+            for (;;) {
+                Node headRef = head.getReference();
+                if (head.isMarked() || head.attemptMark(headRef, true)) {
+                    break;
+                }
+            }
+            // the successor of a marked node never changes, and neither does a frozen head
+            for (Node curr = head.getReference(); curr != null; curr = curr.next.getReference()) {
+                // take the node out, unless a remove marked it first
+                boolean taken = false;
+                while (!taken && !curr.next.isMarked()) {
+                    Node next = curr.next.getReference();
+                    taken = curr.next.compareAndSet(next, next, false, true);
+                }
+                if (!taken) {
+                    continue;
+                }
+                float value;
+                do {
+                    value = (float) Node.VALUE.getAcquire(curr);
+                } while (!Node.VALUE.compareAndSet(curr, value, MOVED));
+                target[curr.key.hashCode() & (target.length - 1)].push(newNode(curr.key, value, null));
+            }
+        }
+        finally {
+            NODES.exit();
+        }
+    }
+
+    // prepend an existing node, ignores the frozen mark since a target list is never frozen
+    private void push(Node node) {
         for (;;) {
             Node headRef = head.getReference();
-            // Try CAS, if that succeeds exit method
-            // if head is marked, loop should repeat until it isn't
-            if (head.compareAndSet(headRef, new Node(key, value, headRef),
-                    false, false)) {
+            node.next.set(headRef, false);
+            if (head.compareAndSet(headRef, node, false, false)) {
                 return;
             }
         }
@@ -166,20 +454,24 @@ public class LinkedList {
      * @return A key value pairing
      */
     public Tuple<String, Float> getRandom() {
-        Node curr = head.getReference();
-        while (curr != null) {
-            if (ThreadLocalRandom.current().nextBoolean()) {
+        NODES.enter();
+        try {
+            for (Node curr = liveAfter(null); curr != null; curr = liveAfter(curr)) {
+                if (ThreadLocalRandom.current().nextBoolean()) {
+                    return new Tuple<>(curr.key, curr.value);
+                }
+            }
+            // iterated through linked list without returning anything, just do head
+            Node curr = liveAfter(null);
+            if (curr != null) {
                 return new Tuple<>(curr.key, curr.value);
             }
-            curr = curr.next.getReference();
-        }
-        // iterated through linked list without returning anything, just do head
-        curr = head.getReference();
-        if (curr != null) {
-            return new Tuple<>(curr.key, curr.value);
+            else {
+                return null;
+            }
         }
-        else {
-            return null;
+        finally {
+            NODES.exit();
         }
     }
 
@@ -189,57 +481,71 @@ public class LinkedList {
      * @return True if removal is successful
      */
     public boolean remove(String key) {
-        find:
-        for (;;) {
-            Node prev = null;
-            Node curr = head.getReference();
-            do {
+        NODES.enter();
+        try {
+            for (;;) {
+                Node prev = null;
+                Node curr = liveAfter(null);
+                // find the first live node matching key
+                while (curr != null && !curr.key.equals(key)) {
+                    prev = curr;
+                    curr = liveAfter(curr);
+                }
+                // not found, return false
+                if (curr == null) {
+                    return false;
+                }
                 Node next = curr.next.getReference();
-                // match is found
-                if (curr.key.equals(key)) {
-                    // if prev is null, head should be removed
-                    if (prev == null) {
-                        // mark reference succeeds, CAS Reference
-                        if (curr.next.attemptMark(next, true)) {
-                            // CAS succeeds
-                            if (head.compareAndSet(curr, next, false, false)) {
-                                return true;
-                            }
-                            // CAS fails, try again
-                            else {
-                                continue find;
-                            }
-                        }
-                        // mark fails, go to beginning
-                        else {
-                            continue find;
-                        }
-                    }
-                    else {
-                        // mark reference succeeds, CAS reference
-                        if (curr.next.attemptMark(next, true)) {
-                            // CAS succeeds
-                            if (prev.next.compareAndSet(curr, next, false, false)) {
-                                return true;
-                            }
-                            // CAS Fails, try again
-                            else {
-                                continue find;
-                            }
-                        }
-                        // mark fails, go to beginning
-                        else {
-                            continue find;
-                        }
-                    }
+                // mark reference, fails if another thread removed curr or changed its successor
+                if (!curr.next.compareAndSet(next, next, false, true)) {
+                    continue;
                 }
-                // iterate to next node
-                prev = curr;
-                curr = next;
-            } while (curr != null);
-            // not found, return false;
-            return false;
+                // try to unlink, if the CAS fails the next traversal passing it will
+                snip(prev, curr, next);
+                return true;
+            }
+        }
+        finally {
+            NODES.exit();
+        }
+    }
+
+    // Find the live node holding key, unlinking the marked nodes passed on the way.
+    // Only call between NODES.enter and NODES.exit.
+    private Node find(String key) {
+        for (Node curr = liveAfter(null); curr != null; curr = liveAfter(curr)) {
+            if (curr.key.equals(key)) {
+                return curr;
+            }
+        }
+        return null;
+    }
+
+    // Get the first live node after prev, or after the head if prev is null,
+    // helping removers by unlinking the marked nodes in between. A node whose
+    // unlink fails is skipped, so traversals never restart and always finish.
+    private Node liveAfter(Node prev) {
+        Node curr = prev == null ? head.getReference() : prev.next.getReference();
+        while (curr != null && curr.next.isMarked()) {
+            // the successor of a marked node never changes again
+            Node succ = curr.next.getReference();
+            snip(prev, curr, succ);
+            curr = succ;
+        }
+        return curr;
+    }
+
+    // unlink a marked node from its predecessor, retiring it if this thread did
+    private boolean snip(Node prev, Node curr, Node succ) {
+        // fails if prev was removed too, or on the head of a frozen list
+        boolean unlinked = prev == null
+                ? head.compareAndSet(curr, succ, false, false)
+                : prev.next.compareAndSet(curr, succ, false, false);
+        // only a node this thread unlinked is unreachable, and only once
+        if (unlinked) {
+            NODES.retire(curr);
         }
+        return unlinked;
     }
 
 }
@@ -0,0 +1,283 @@
+package ConcurrentUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parallel loader for large local CSV files of tickers and prices. The file is
+ * memory mapped in chunks split on line boundaries, and a pool of threads
+ * parses the chunks straight from the mapped bytes, handing every row to a
+ * sink that is called from all of them at once.
+ * Fields may be quoted, with "" for a quote inside a quoted field, but a
+ * record may not contain a line break. The first line is a header and is
+ * skipped, as are rows whose price does not parse.
+ */
+public class MappedCsvLoader {
+
+    /**
+     * Receives the rows of a file, from several threads at once.
+     */
+    public interface RowSink {
+        void accept(String ticker, float price);
+    }
+
+    // bounds of the bytes parsed by one task, enough tasks to balance the
+    // threads, each small enough to map in one piece
+    private static final long MIN_CHUNK = 64L << 10;
+    private static final long MAX_CHUNK = 64L << 20;
+    private static final int TASKS_PER_THREAD = 4;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private final int tickerColumn;
+    private final int priceColumn;
+    private final int threads;
+
+    /**
+     * Create a loader using one thread per processor.
+     * @param tickerColumn Index of the ticker field
+     * @param priceColumn Index of the price field
+     */
+    public MappedCsvLoader(int tickerColumn, int priceColumn) {
+        this(tickerColumn, priceColumn, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a loader.
+     * @param tickerColumn Index of the ticker field
+     * @param priceColumn Index of the price field
+     * @param threads Number of threads parsing chunks
+     */
+    public MappedCsvLoader(int tickerColumn, int priceColumn, int threads) {
+        this.tickerColumn = tickerColumn;
+        this.priceColumn = priceColumn;
+        this.threads = threads;
+    }
+
+    /**
+     * Parse a file, passing every row to a sink.
+     * @param file Local CSV file
+     * @param sink Called once per row, from several threads at once
+     * @return Number of rows passed to sink
+     * @throws IOException The file could not be read
+     */
+    public long load(Path file, RowSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = split(channel);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Long>> rows = new ArrayList<>();
+                for (int i = 0; i + 1 < bounds.length; i++) {
+                    long start = bounds[i];
+                    long length = bounds[i + 1] - start;
+                    rows.add(pool.submit(() ->
+                            parse(channel.map(FileChannel.MapMode.READ_ONLY, start, length), sink)));
+                }
+                long total = 0;
+                for (Future<Long> count : rows) {
+                    total += count.get();
+                }
+                return total;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading " + file, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Parsing " + file + " failed", e.getCause());
+            }
+            finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    // chunk boundaries, each at the start of a line, the first past the header
+    private long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start = lineAfter(channel, 0, size);
+        long chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, (size - start) / (threads * TASKS_PER_THREAD)));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        for (long at = start + chunk; at < size; ) {
+            long next = lineAfter(channel, at, size);
+            if (next >= size) {
+                break;
+            }
+            bounds.add(next);
+            at = next + chunk;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // position just past the first line break at or after from, or size
+    private static long lineAfter(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (long at = from; at < size; ) {
+            buffer.clear();
+            int read = channel.read(buffer, at);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return at + i + 1;
+                }
+            }
+            at += read;
+        }
+        return size;
+    }
+
+    // parse whole lines of a chunk
+    private long parse(MappedByteBuffer buffer, RowSink sink) {
+        int limit = buffer.limit();
+        // ticker bytes, unescaped, grown for long tickers
+        byte[] scratch = new byte[64];
+        long rows = 0;
+        int i = 0;
+        while (i < limit) {
+            int tickerLength = -1;
+            int priceStart = -1;
+            int priceEnd = -1;
+            for (int field = 0; ; field++) {
+                int start;
+                int end;
+                boolean escaped = false;
+                if (i < limit && buffer.get(i) == '"') {
+                    start = ++i;
+                    for (;;) {
+                        if (i >= limit) {
+                            end = i;
+                            break;
+                        }
+                        if (buffer.get(i) == '"') {
+                            if (i + 1 < limit && buffer.get(i + 1) == '"') {
+                                escaped = true;
+                                i += 2;
+                                continue;
+                            }
+                            end = i++;
+                            break;
+                        }
+                        i++;
+                    }
+                    // ignore anything between the closing quote and the delimiter
+                    while (i < limit && buffer.get(i) != ',' && buffer.get(i) != '\n') {
+                        i++;
+                    }
+                }
+                else {
+                    start = i;
+                    while (i < limit && buffer.get(i) != ',' && buffer.get(i) != '\n') {
+                        i++;
+                    }
+                    end = i;
+                    if (end > start && buffer.get(end - 1) == '\r') {
+                        end--;
+                    }
+                }
+                if (field == tickerColumn) {
+                    if (scratch.length < end - start) {
+                        scratch = new byte[2 * (end - start)];
+                    }
+                    tickerLength = copy(buffer, start, end, escaped, scratch);
+                }
+                else if (field == priceColumn) {
+                    priceStart = start;
+                    priceEnd = end;
+                }
+                // end of the line
+                if (i >= limit || buffer.get(i) == '\n') {
+                    i++;
+                    break;
+                }
+                i++;
+            }
+            if (tickerLength >= 0 && priceStart >= 0) {
+                float price = parsePrice(buffer, priceStart, priceEnd);
+                if (!Float.isNaN(price)) {
+                    sink.accept(new String(scratch, 0, tickerLength, StandardCharsets.UTF_8), price);
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    // copy a field into scratch, turning "" into ", and return its length
+    private static int copy(ByteBuffer buffer, int start, int end, boolean escaped, byte[] scratch) {
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            scratch[n++] = b;
+            if (escaped && b == '"') {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    // parse a price without allocating when it is a plain decimal number, and
+    // through Float.parseFloat otherwise, NaN if it is not a number
+    private static float parsePrice(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i++) == '-';
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            }
+            else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            }
+            else {
+                break;
+            }
+        }
+        // a plain number short enough for the mantissa and the power of ten to be exact
+        if (i == end && digits > 0 && digits < POWERS_OF_TEN.length) {
+            double value = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+            return (float) (negative ? -value : value);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int n = 0; n < bytes.length; n++) {
+            bytes[n] = buffer.get(start + n);
+        }
+        try {
+            return Float.parseFloat(new String(bytes, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+package ConcurrentUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * On-disk cache of parsed market data, so a market loaded before is read back
+ * without parsing its CSV again. Entries are keyed by the source URL and hold
+ * a hash of the content they were parsed from: the content is still read and
+ * hashed on every load, and only parsed when it changed. The hash is the
+ * length with a CRC32C and a CRC32, both intrinsics that run at memory speed,
+ * where a cryptographic hash would cost about as much as parsing. It catches
+ * changed data, not deliberate collisions.
+ * An entry is a small header followed by the rows, each a float price and a
+ * length-prefixed UTF-8 ticker, and is memory mapped back in one pass.
+ * Entries are written to a temporary file and moved into place, so concurrent
+ * loads and crashes never leave a partial entry behind.
+ */
+public class MarketCache {
+
+    // "MKTC", bumped version for any change of the layout
+    private static final int MAGIC = 0x4d4b5443;
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = 16;
+    private static final int HEADER_BYTES = 4 + 4 + HASH_BYTES + 4;
+
+    /**
+     * Rows parsed on a miss, collected from the parsing threads and written
+     * to the cache before they are replayed to the sink.
+     */
+    private static final class Rows implements MappedCsvLoader.RowSink {
+        String[] tickers = new String[1024];
+        float[] prices = new float[1024];
+        int size;
+        int longest;
+
+        @Override
+        public synchronized void accept(String ticker, float price) {
+            if (size == tickers.length) {
+                tickers = Arrays.copyOf(tickers, 2 * size);
+                prices = Arrays.copyOf(prices, 2 * size);
+            }
+            longest = Math.max(longest, ticker.length());
+            tickers[size] = ticker;
+            prices[size++] = price;
+        }
+    }
+
+    private final Path directory;
+    private final MappedCsvLoader loader;
+
+    /**
+     * Create a cache in the default directory, market-cache under java.io.tmpdir.
+     * @param tickerColumn Index of the ticker field
+     * @param priceColumn Index of the price field
+     */
+    public MarketCache(int tickerColumn, int priceColumn) {
+        this(Paths.get(System.getProperty("java.io.tmpdir"), "market-cache"),
+                new MappedCsvLoader(tickerColumn, priceColumn));
+    }
+
+    /**
+     * Create a cache.
+     * @param directory Directory holding the entries, created if missing
+     * @param loader Parser used on a miss
+     */
+    public MarketCache(Path directory, MappedCsvLoader loader) {
+        this.directory = directory;
+        this.loader = loader;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Load a market, from the cache if the content did not change since it
+     * was last parsed. Rows are passed to the sink from the calling thread,
+     * whether they came from the cache or were parsed.
+     * @param source URL of the CSV, a file: URL is read in place
+     * @param sink Called once per row
+     * @return Number of rows passed to sink
+     * @throws IOException The source or the cache could not be read
+     */
+    public long load(String source, MappedCsvLoader.RowSink sink) throws IOException {
+        Files.createDirectories(directory);
+        Path download = null;
+        try {
+            Path content;
+            if (source.startsWith("file:")) {
+                content = Paths.get(URI.create(source));
+            }
+            else {
+                download = Files.createTempFile(directory, "download", ".csv");
+                try (InputStream input = new URL(source).openStream()) {
+                    Files.copy(input, download, StandardCopyOption.REPLACE_EXISTING);
+                }
+                content = download;
+            }
+            byte[] hash = hash(content);
+            Path entry = directory.resolve(entryName(source));
+            long rows = read(entry, hash, sink);
+            if (rows >= 0) {
+                return rows;
+            }
+            Rows parsed = new Rows();
+            loader.load(content, parsed);
+            // tickers too long for the entry layout are left uncached, a char is
+            // at most 3 bytes of UTF-8
+            if (3 * parsed.longest <= 0xffff) {
+                write(entry, hash, parsed);
+            }
+            for (int i = 0; i < parsed.size; i++) {
+                sink.accept(parsed.tickers[i], parsed.prices[i]);
+            }
+            return parsed.size;
+        }
+        finally {
+            if (download != null) {
+                Files.deleteIfExists(download);
+            }
+        }
+    }
+
+    // pass the rows of an entry to sink, -1 if it is missing, stale or damaged
+    private static long read(Path entry, byte[] hash, MappedCsvLoader.RowSink sink) throws IOException {
+        if (!Files.exists(entry)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return -1;
+            }
+            byte[] stored = new byte[HASH_BYTES];
+            buffer.get(stored);
+            if (!Arrays.equals(stored, hash)) {
+                return -1;
+            }
+            int rows = buffer.getInt();
+            // a row takes at least 6 bytes
+            if (rows < 0 || rows > buffer.remaining() / 6) {
+                return -1;
+            }
+            // check the whole entry before handing out any row
+            String[] tickers = new String[rows];
+            float[] prices = new float[rows];
+            byte[] scratch = new byte[64];
+            for (int i = 0; i < rows; i++) {
+                prices[i] = buffer.getFloat();
+                int length = buffer.getShort() & 0xffff;
+                if (scratch.length < length) {
+                    scratch = new byte[2 * length];
+                }
+                buffer.get(scratch, 0, length);
+                tickers[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            if (buffer.hasRemaining()) {
+                return -1;
+            }
+            for (int i = 0; i < rows; i++) {
+                sink.accept(tickers[i], prices[i]);
+            }
+            return rows;
+        } catch (BufferUnderflowException e) {
+            // truncated entry
+            return -1;
+        }
+    }
+
+    private void write(Path entry, byte[] hash, Rows rows) throws IOException {
+        Path temp = Files.createTempFile(directory, "entry", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+                out.writeInt(rows.size);
+                for (int i = 0; i < rows.size; i++) {
+                    byte[] ticker = rows.tickers[i].getBytes(StandardCharsets.UTF_8);
+                    out.writeFloat(rows.prices[i]);
+                    out.writeShort(ticker.length);
+                    out.write(ticker);
+                }
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // length and checksums of a whole file, read through a mapping
+    private static byte[] hash(Path file) throws IOException {
+        CRC32C crc32c = new CRC32C();
+        CRC32 crc32 = new CRC32();
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            for (long at = 0; at < size; at += Integer.MAX_VALUE) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(Integer.MAX_VALUE, size - at));
+                crc32c.update(buffer.duplicate());
+                crc32.update(buffer);
+            }
+        }
+        return ByteBuffer.allocate(HASH_BYTES)
+                .putLong(size)
+                .putInt((int) crc32c.getValue())
+                .putInt((int) crc32.getValue())
+                .array();
+    }
+
+    // name of the entry of a source, SHA-256 keeps distinct URLs apart
+    private static String entryName(String source) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every JDK has SHA-256
+            throw new Error(e);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return sb.append(".mkt").toString();
+    }
+
+}
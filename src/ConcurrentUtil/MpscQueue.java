@@ -0,0 +1,85 @@
+package ConcurrentUtil;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Unbounded lock-free queue for many producers and a single consumer.
+ * A producer swaps itself in as the tail with one atomic exchange and then
+ * links the old tail to it, so producers never retry. Only one thread may
+ * call poll and isEmpty.
+ * @param <E> Element type
+ */
+public class MpscQueue<E> {
+
+    private static final class Node<E> {
+        E value;
+        volatile Node<E> next;
+        Node(E value) {
+            this.value = value;
+        }
+    }
+
+    // consumer side, the last node polled
+    private Node<E> head;
+    private volatile Node<E> tail;
+    private static final VarHandle TAIL;
+    private static final VarHandle NEXT;
+    static {
+        try {
+            TAIL = MethodHandles.lookup().
+                    findVarHandle(MpscQueue.class, "tail", Node.class);
+            NEXT = MethodHandles.lookup().
+                    findVarHandle(Node.class, "next", Node.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * Create a new empty MpscQueue.
+     */
+    public MpscQueue() {
+        // Initialize with dummy node
+        head = new Node<>(null);
+        tail = head;
+    }
+
+    /**
+     * Add an element at the tail. Safe to call from any thread.
+     * @param value Element to add, not null
+     */
+    public void offer(E value) {
+        Node<E> node = new Node<>(value);
+        Node<E> prev = (Node<E>) TAIL.getAndSet(this, node);
+        // until this link is set the consumer sees the queue end at prev
+        NEXT.setRelease(prev, node);
+    }
+
+    /**
+     * Remove the element at the head. Only the consumer thread may call this.
+     * @return The element, or null if the queue is empty or the next element
+     *         is still being linked in
+     */
+    public E poll() {
+        Node<E> next = (Node<E>) NEXT.getAcquire(head);
+        if (next == null) {
+            return null;
+        }
+        E value = next.value;
+        // next becomes the dummy node, drop the reference to its element
+        next.value = null;
+        head = next;
+        return value;
+    }
+
+    /**
+     * Check if the queue has no elements ready. Only the consumer thread may call this.
+     * @return True if poll would return null
+     */
+    public boolean isEmpty() {
+        return NEXT.getAcquire(head) == null;
+    }
+
+}
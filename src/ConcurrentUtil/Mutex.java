@@ -1,48 +1,121 @@
 package ConcurrentUtil;
 
-import java.util.Optional;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Queue lock. A thread that finds the lock held spins for a while, then puts
+ * itself in a ConcurrentUtil.Queue and parks. Only the thread at the front of
+ * the queue may take the lock, and unlock wakes it.
+ * In barging mode a thread that is not yet queued may take a free lock ahead
+ * of the queue, which keeps the lock busy while the woken thread is scheduled.
+ * In fair mode threads take the lock in the order they queued.
+ */
 public class Mutex {
 
-    private boolean held;
-    private Queue queue;
+    // spinning only helps if the holder can run at the same time
+    private static final int MAX_SPINS =
+            Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+    private static final int MIN_SPINS = MAX_SPINS >>> 4;
+
+    private volatile int held;
+    private final boolean fair;
+    private final Queue queue;
+    // spin budget, grown when spinning acquires the lock and shrunk when it does
+    // not, races between threads only make it less accurate
+    private int spins;
+    private static final VarHandle HELD;
+    static {
+        try {
+            HELD = MethodHandles.lookup().
+                    findVarHandle(Mutex.class, "held", int.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
 
     /**
-     * Creates a new ConcurrentUtil.Mutex object.
+     * Creates a new barging ConcurrentUtil.Mutex object.
      */
     public Mutex() {
-        held = false;
+        this(false);
+    }
+
+    /**
+     * Creates a new ConcurrentUtil.Mutex object.
+     * @param fair True to hand out the lock in FIFO order, false to allow barging
+     */
+    public Mutex(boolean fair) {
+        held = 0;
+        this.fair = fair;
         queue = new Queue();
+        spins = MAX_SPINS;
     }
 
     /**
      * Lock this lock.
-     * @throws InterruptedException
+     * @throws InterruptedException Thread is interrupted while waiting
      */
     public void lock() throws InterruptedException {
-        Thread thread = Thread.currentThread();
-        // if lock is held, add thread to queue and wait
-        if (held) {
-            queue.put(thread);
-            thread.wait();
+        acquire(false, 0L);
+    }
+
+    /**
+     * Lock this lock, ignoring interrupts while waiting. The interrupt status is
+     * restored before returning.
+     */
+    public void lockUninterruptibly() {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                acquire(false, 0L);
+                break;
+            } catch (InterruptedException e) {
+                // the interrupt status was cleared, queue again
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
-        // give lock to this thread
-        held = true;
+    }
+
+    /**
+     * Lock this lock if it is free, even in fair mode.
+     * @return True if the lock was taken
+     */
+    public boolean tryLock() {
+        return held == 0 && HELD.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * Lock this lock, waiting at most timeout.
+     * @param timeout Maximum time to wait
+     * @param unit Unit of timeout
+     * @return True if the lock was taken, false if the time ran out
+     * @throws InterruptedException Thread is interrupted while waiting
+     */
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        return acquire(true, unit.toNanos(timeout));
     }
 
     /**
      * Unlock this lock.
      */
     public void unlock() {
-        // poll queue for next thread
-        Optional<Thread> thread = queue.poll();
-        // if thread is present, notify it that it has the lock
-        if (thread.isPresent()) {
-            thread.get().notify();
+        if (held == 0) {
+            throw new IllegalMonitorStateException("Mutex is not locked");
         }
-        // No more threads in queue, nobody holds lock
-        else {
-            held = false;
+        // a volatile store, so the peek below cannot be ordered before it: a thread
+        // that queued and then saw the lock held is always seen by the peek
+        HELD.setVolatile(this, 0);
+        // wake the first queued thread, it takes the lock unless a barging thread won
+        Thread next = queue.peek();
+        if (next != null) {
+            LockSupport.unpark(next);
         }
     }
 
@@ -51,7 +124,81 @@ public class Mutex {
      * @return True if this lock is held by a thread
      */
     public boolean isHeld() {
-        return held;
+        return held != 0;
+    }
+
+    /**
+     * Return the fairness mode of this lock.
+     * @return True if this lock is FIFO fair
+     */
+    public boolean isFair() {
+        return fair;
+    }
+
+    // take a free lock unless fairness requires queueing behind other threads
+    private boolean tryAcquire() {
+        return held == 0 && (!fair || queue.isEmpty()) && HELD.compareAndSet(this, 0, 1);
+    }
+
+    // spin up to the current budget before queueing
+    private boolean spin() {
+        int limit = spins;
+        for (int i = 0; i < limit; i++) {
+            Thread.onSpinWait();
+            if (tryAcquire()) {
+                spins = Math.min(MAX_SPINS, limit * 2);
+                return true;
+            }
+        }
+        spins = Math.max(MIN_SPINS, limit / 2);
+        return false;
+    }
+
+    private boolean acquire(boolean timed, long nanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (tryAcquire() || spin()) {
+            return true;
+        }
+        Thread current = Thread.currentThread();
+        long deadline = timed ? System.nanoTime() + nanos : 0L;
+        Queue.Node node = queue.enqueue(current);
+        for (;;) {
+            // only the front of the queue competes, so woken threads never pile up
+            if (queue.peek() == current && HELD.compareAndSet(this, 0, 1)) {
+                queue.pollThread();
+                return true;
+            }
+            if (timed) {
+                nanos = deadline - System.nanoTime();
+                if (nanos <= 0L) {
+                    leave(node);
+                    return false;
+                }
+                LockSupport.parkNanos(this, nanos);
+            }
+            else {
+                LockSupport.park(this);
+            }
+            if (Thread.interrupted()) {
+                leave(node);
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    // give up waiting, passing on a wakeup this thread may have used up. The
+    // cancel is a CAS and unlock stores held with a volatile write, so either
+    // this thread sees the lock free or the unlocking thread's peek skips it
+    private void leave(Queue.Node node) {
+        queue.cancel(node);
+        if (held == 0) {
+            Thread next = queue.peek();
+            if (next != null) {
+                LockSupport.unpark(next);
+            }
+        }
     }
 
 }
@@ -0,0 +1,215 @@
+package ConcurrentUtil;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Per-thread pools of unlinked nodes, recycled with epoch-based reclamation.
+ * Every access to a lock-free structure's nodes runs between enter and exit.
+ * A thread that unlinks a node retires it, and the node is only handed out
+ * again once the global epoch has advanced twice. By then every thread that
+ * was inside when the node was retired has exited, so no thread can still
+ * hold a reference to it from before it was unlinked.
+ * A thread inside is counted in one of a fixed number of striped counters, by
+ * the parity of the epoch it entered in. Threads inside have entered in the
+ * current or the previous epoch, so the epoch advances once the counts of the
+ * previous epoch are all zero, at a cost that does not grow with the number of
+ * threads. A thread that stays inside holds back recycling for all threads,
+ * and retired nodes beyond the limbo capacity are left to the garbage
+ * collector. Nodes are only recycled by the thread that retired them, and a
+ * thread only allocates its bags once it retires nodes.
+ * @param <T> Node type
+ */
+public class NodePool<T> {
+
+    // most nodes a thread keeps ready for reuse, and waiting in each epoch
+    private static final int MAX_FREE = 256;
+    private static final int MAX_LIMBO = 256;
+    private static final int MIN_BAG = 16;
+    // retires between attempts to advance the epoch
+    private static final int ADVANCE_EVERY = 64;
+    // counter stripes, a power of 2 of about twice the processors
+    private static final int STRIPES =
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+    // longs between stripes, so each stripe has its own cache line
+    private static final int STRIPE_STRIDE = 8;
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final class Local {
+        // index of the even epoch counter of this thread's stripe
+        final int stripe;
+        // epoch entered in, valid while depth > 0
+        long entered;
+        int depth;
+        // nodes retired in each of the last three epochs, by epoch % 3, each
+        // bag allocated on first use and grown up to MAX_LIMBO
+        final Object[][] limbo = new Object[3][];
+        final int[] limboSize = new int[3];
+        final long[] limboEpoch = new long[3];
+        Object[] free;
+        int freeCount;
+        int retires;
+        Local(int stripe) {
+            this.stripe = stripe;
+        }
+    }
+
+    private final Class<T> type;
+    private volatile long epoch;
+    // threads inside per stripe, at stripe * STRIPE_STRIDE + epoch % 2
+    private final long[] counts;
+    private final ThreadLocal<Local> local;
+    private static final VarHandle EPOCH;
+    static {
+        try {
+            EPOCH = MethodHandles.lookup().
+                    findVarHandle(NodePool.class, "epoch", long.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * Create a new empty NodePool.
+     * @param type Class of the nodes
+     */
+    public NodePool(Class<T> type) {
+        this.type = type;
+        epoch = 0;
+        counts = new long[STRIPES * STRIPE_STRIDE];
+        local = ThreadLocal.withInitial(() -> new Local(stripeOf(Thread.currentThread())));
+    }
+
+    private static int stripeOf(Thread thread) {
+        // mix the id so consecutive thread ids spread over the stripes
+        int hash = (int) thread.getId() * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & (STRIPES - 1)) * STRIPE_STRIDE;
+    }
+
+    /**
+     * Start accessing nodes. Calls may nest, only the outermost pair counts.
+     */
+    public void enter() {
+        Local l = local.get();
+        if (l.depth++ > 0) {
+            return;
+        }
+        // count this thread in, then check the epoch did not move before the
+        // count could be seen
+        long e = epoch;
+        for (;;) {
+            COUNTS.getAndAdd(counts, l.stripe + (int) (e & 1), 1L);
+            long now = epoch;
+            if (now == e) {
+                break;
+            }
+            COUNTS.getAndAdd(counts, l.stripe + (int) (e & 1), -1L);
+            e = now;
+        }
+        l.entered = e;
+        for (int i = 0; i < 3; i++) {
+            if (l.limboSize[i] > 0 && l.limboEpoch[i] <= e - 2) {
+                recycle(l, i);
+            }
+        }
+    }
+
+    /**
+     * Stop accessing nodes. Node references read since enter must not be used again.
+     */
+    public void exit() {
+        Local l = local.get();
+        if (--l.depth == 0) {
+            COUNTS.getAndAdd(counts, l.stripe + (int) (l.entered & 1), -1L);
+        }
+    }
+
+    /**
+     * Hand a node to the pool once it is unlinked. Only call between enter and
+     * exit, and only once per unlink.
+     * @param node Node no longer reachable from the structure
+     */
+    public void retire(T node) {
+        Local l = local.get();
+        // the current epoch, not the entered one: a thread that entered in this
+        // epoch may still have read the node before it was unlinked
+        long e = epoch;
+        int i = (int) (e % 3);
+        // the bag still holds nodes from three epochs ago, which are safe by now
+        if (l.limboSize[i] > 0 && l.limboEpoch[i] != e) {
+            recycle(l, i);
+        }
+        l.limboEpoch[i] = e;
+        Object[] bag = l.limbo[i];
+        if (bag == null) {
+            bag = new Object[MIN_BAG];
+            l.limbo[i] = bag;
+        }
+        else if (l.limboSize[i] == bag.length && bag.length < MAX_LIMBO) {
+            bag = Arrays.copyOf(bag, bag.length * 2);
+            l.limbo[i] = bag;
+        }
+        if (l.limboSize[i] < bag.length) {
+            bag[l.limboSize[i]++] = node;
+        }
+        // a full bag means the epoch is stuck, keep trying on every retire
+        if (++l.retires == ADVANCE_EVERY || l.limboSize[i] == MAX_LIMBO) {
+            l.retires = 0;
+            tryAdvance();
+        }
+    }
+
+    /**
+     * Take a recycled node of this thread. It is no longer reachable by any
+     * thread, and must be fully reinitialized before it is published.
+     * @return A node, or null if the pool is empty
+     */
+    public T take() {
+        Local l = local.get();
+        if (l.freeCount == 0) {
+            return null;
+        }
+        T node = type.cast(l.free[--l.freeCount]);
+        l.free[l.freeCount] = null;
+        return node;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    // move a limbo bag to the free nodes, dropping what does not fit
+    private static void recycle(Local l, int i) {
+        Object[] bag = l.limbo[i];
+        int size = l.limboSize[i];
+        int needed = Math.min(MAX_FREE, l.freeCount + size);
+        if (l.free == null) {
+            l.free = new Object[Math.max(MIN_BAG, needed)];
+        }
+        else if (l.free.length < needed) {
+            l.free = Arrays.copyOf(l.free, Math.min(MAX_FREE, Math.max(needed, l.free.length * 2)));
+        }
+        for (int n = 0; n < size; n++) {
+            if (l.freeCount < l.free.length) {
+                l.free[l.freeCount++] = bag[n];
+            }
+            bag[n] = null;
+        }
+        l.limboSize[i] = 0;
+    }
+
+    // advance the epoch if no thread is still inside from the previous one
+    private void tryAdvance() {
+        long e = epoch;
+        int previous = (int) ((e - 1) & 1);
+        for (int s = 0; s < counts.length; s += STRIPE_STRIDE) {
+            if ((long) COUNTS.getVolatile(counts, s + previous) != 0L) {
+                return;
+            }
+        }
+        EPOCH.compareAndSet(this, e, e + 1);
+    }
+
+}
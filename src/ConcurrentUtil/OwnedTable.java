@@ -0,0 +1,234 @@
+package ConcurrentUtil;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Single-owner IdTable for holdings that never leave one thread, with the
+ * quantity held of each id. No locks, CAS or volatile accesses: only the owning
+ * thread may call it while it runs. Other threads may read it once the owner is
+ * done and they have synchronized with it, e.g. through Future.get or
+ * Thread.join on the owner's task.
+ * Ids are kept in an open addressing table that grows with the number of ids
+ * held, so a trader holding a few stocks of a large market stays small. The
+ * table only maps ids to positions in the dense arrays of held ids, values and
+ * quantities, so slots left by removed ids are cleared in place, and buying
+ * and selling without holding more ids than before allocates nothing.
+ */
+public class OwnedTable implements IdTable {
+
+    private static final int MIN_CAPACITY = 8;
+
+    // id + 1 of each slot, or 0 if free. A slot keeps its id once it is removed,
+    // until the slots are rebuilt, so ids are found without tombstone checks
+    private int[] keys;
+    // position in ids of the id in each slot, or -1 if it is not held
+    private int[] positions;
+    // slots with an id, held or not
+    private int used;
+    // held ids, and their values and quantities, by position
+    private int[] ids;
+    private float[] values;
+    private int[] quantities;
+    private int size;
+
+    /**
+     * Create an empty table.
+     */
+    public OwnedTable() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create an empty table sized for a number of ids.
+     * @param expected Number of ids expected to be held at once, the table grows past it
+     */
+    public OwnedTable(int expected) {
+        int capacity = slotsFor(expected);
+        keys = new int[capacity];
+        positions = new int[capacity];
+        used = 0;
+        int held = Math.max(MIN_CAPACITY, expected);
+        ids = new int[held];
+        values = new float[held];
+        quantities = new int[held];
+        size = 0;
+    }
+
+    // smallest power of 2 keeping count ids at most half full
+    private static int slotsFor(int count) {
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, count) * 2 - 1) * 2);
+    }
+
+    // first slot to probe for an id
+    static int hash(int id, int mask) {
+        int h = id * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // slot holding id, or -1
+    private int find(int id) {
+        int mask = keys.length - 1;
+        for (int slot = hash(id, mask); ; slot = (slot + 1) & mask) {
+            int key = keys[slot];
+            if (key == id + 1) {
+                return slot;
+            }
+            if (key == 0) {
+                return -1;
+            }
+        }
+    }
+
+    // position of id, or -1 if it is not held
+    private int positionOf(int id) {
+        int slot = find(id);
+        return slot < 0 ? -1 : positions[slot];
+    }
+
+    // take a free slot for id, only if it has none
+    private int insert(int id) {
+        int mask = keys.length - 1;
+        int slot = hash(id, mask);
+        while (keys[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = id + 1;
+        used++;
+        return slot;
+    }
+
+    // slot for id, claiming a free one and rebuilding the slots first if needed
+    private int claim(int id) {
+        int slot = find(id);
+        if (slot >= 0) {
+            return slot;
+        }
+        if ((used + 1) * 2 > keys.length) {
+            rebuild();
+        }
+        slot = insert(id);
+        positions[slot] = -1;
+        return slot;
+    }
+
+    // drop the slots of removed ids, growing only if the held ids fill a
+    // quarter of the table, so slots are not rebuilt again too soon
+    private void rebuild() {
+        if ((size + 1) * 4 > keys.length) {
+            keys = new int[keys.length * 2];
+            positions = new int[keys.length];
+        }
+        else {
+            Arrays.fill(keys, 0);
+        }
+        used = 0;
+        for (int position = 0; position < size; position++) {
+            positions[insert(ids[position])] = position;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public float getValue(int id) {
+        int position = positionOf(id);
+        return position < 0 ? 0f : values[position];
+    }
+
+    /**
+     * Get the number of times an id was added since it was last removed.
+     * @param id Id to search for
+     * @return Quantity held, zero if it is not present
+     */
+    public int getQuantity(int id) {
+        int position = positionOf(id);
+        return position < 0 ? 0 : quantities[position];
+    }
+
+    @Override
+    public boolean updatePair(int id, float newValue) {
+        int position = positionOf(id);
+        if (position < 0) {
+            return false;
+        }
+        values[position] = newValue;
+        return true;
+    }
+
+    @Override
+    public float addAndGet(int id, float delta) {
+        int slot = claim(id);
+        int position = positions[slot];
+        if (position < 0) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                quantities = Arrays.copyOf(quantities, size * 2);
+            }
+            positions[slot] = size;
+            ids[size] = id;
+            values[size] = delta;
+            quantities[size] = 1;
+            size++;
+            return delta;
+        }
+        quantities[position]++;
+        return values[position] += delta;
+    }
+
+    @Override
+    public float remove(int id) {
+        int slot = find(id);
+        if (slot < 0 || positions[slot] < 0) {
+            return Float.NaN;
+        }
+        int position = positions[slot];
+        float value = values[position];
+        // move the last id into the hole
+        int last = --size;
+        int moved = ids[last];
+        ids[position] = moved;
+        values[position] = values[last];
+        quantities[position] = quantities[last];
+        positions[find(moved)] = position;
+        positions[slot] = -1;
+        return value;
+    }
+
+    /**
+     * Take some of the quantity of an id, removing it once none is left. The
+     * value taken is the id's value split evenly over its quantity.
+     * @param id Id to take from
+     * @param count Quantity to take, at most the quantity held is taken
+     * @return Value taken, or NaN if the id is not present
+     */
+    public float removeShares(int id, int count) {
+        int position = positionOf(id);
+        if (position < 0) {
+            return Float.NaN;
+        }
+        int quantity = quantities[position];
+        if (count >= quantity) {
+            return remove(id);
+        }
+        float taken = values[position] * count / quantity;
+        values[position] -= taken;
+        quantities[position] = quantity - count;
+        return taken;
+    }
+
+    @Override
+    public int idAt(int position) {
+        return ids[position];
+    }
+
+    @Override
+    public int getRandomId() {
+        return size == 0 ? -1 : ids[ThreadLocalRandom.current().nextInt(size)];
+    }
+
+}
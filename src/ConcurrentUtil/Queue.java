@@ -4,16 +4,25 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
 import java.util.Optional;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.LinkedHashSet;
 
+/**
+ * Lock-free Michael-Scott queue of threads. Nodes that leave the queue are
+ * recycled through a NodePool shared by all queues, so a node held by a
+ * waiting thread may already carry another thread by the time it looks.
+ */
 public class Queue {
 
-    private static final class Node {
-        final Thread thread;
-        Node next;
+    static final class Node {
+        // null once the node has been polled or cancelled
+        volatile Thread thread;
+        volatile Node next;
+        final static VarHandle THREAD;
         final static VarHandle NEXT;
         static {
             try {
+                THREAD = MethodHandles.lookup().
+                        findVarHandle(Node.class, "thread", Thread.class);
                 NEXT = MethodHandles.lookup().
                         findVarHandle(Node.class, "next", Node.class);
             }
@@ -27,6 +36,9 @@ public class Queue {
         }
     }
 
+    // nodes of every queue, recycled once no thread can still be reading them
+    private static final NodePool<Node> NODES = new NodePool<>(Node.class);
+
     private volatile Node head;
     private volatile Node tail;
     private final static VarHandle HEAD;
@@ -57,7 +69,33 @@ public class Queue {
      * @param thread Thread object to put into the queue
      */
     public void put(Thread thread) {
-        Node newNode = new Node(thread, null);
+        enqueue(thread);
+    }
+
+    /**
+     * Put a thread into the queue.
+     * @param thread Thread object to put into the queue
+     * @return Node holding the thread, which can be passed to cancel
+     */
+    Node enqueue(Thread thread) {
+        NODES.enter();
+        try {
+            return link(thread);
+        }
+        finally {
+            NODES.exit();
+        }
+    }
+
+    private Node link(Thread thread) {
+        Node newNode = NODES.take();
+        if (newNode == null) {
+            newNode = new Node(thread, null);
+        }
+        else {
+            newNode.next = null;
+            newNode.thread = thread;
+        }
         for (;;) {
             Node tailRef = (Node) TAIL.getAcquire(this);
             Node next = (Node) Node.NEXT.getAcquire(tailRef);
@@ -67,7 +105,9 @@ public class Queue {
                 if (next == null) {
                     // Try to CAS new node to end of list
                     if (Node.NEXT.compareAndSet(tailRef, null, newNode)) {
-                        break;
+                        // Update tail pointer to newly added node
+                        TAIL.compareAndSet(this, tailRef, newNode);
+                        return newNode;
                     }
                 }
                 // tail isn't pointing to last node, swing it
@@ -76,46 +116,117 @@ public class Queue {
                 }
             }
         }
-        // Update tail pointer to newly added node
-        TAIL.compareAndSet(this, tail, tail.next);
     }
 
     /**
-     * Poll a thread from the front of the queue.
-     * @return Optional containing a thread object or nothing
+     * Remove the calling thread from the queue before it is polled. The node
+     * stays linked until it reaches the front, where peek and poll skip it.
+     * @param node Node returned by enqueue to the calling thread
+     * @return True if cancelled, false if the thread was already polled
      */
-    public Optional<Thread> poll() {
+    boolean cancel(Node node) {
+        // a polled node may have been recycled for another thread, never clear that
+        return Node.THREAD.compareAndSet(node, Thread.currentThread(), null);
+    }
+
+    /**
+     * Get the thread at the front of the queue without removing it.
+     * @return The first thread, or null if the queue is empty
+     */
+    public Thread peek() {
+        NODES.enter();
+        try {
+            return front();
+        }
+        finally {
+            NODES.exit();
+        }
+    }
+
+    private Thread front() {
         for (;;) {
-            Node headRef = (Node) HEAD.getAcquire(this);
-            Node tailRef = (Node) TAIL.getAcquire(this);
-            Node next = (Node) Node.NEXT.getAcquire(head);
-            // Check for consistency in values
-            if (headRef == head) {
-                // is queue empty, or tail "falling behind"
-                if (headRef == tailRef) {
-                    // ConcurrentUtil.Queue is empty, return nothing
-                    if (next == null) {
-                        return Optional.empty();
-                    }
-                    // Tail isn't pointing to last node, try to fix it
-                    TAIL.compareAndSet(this, tailRef, tailRef.next);
-                }
-                // Just remove head
-                else {
-                    if (Node.NEXT.compareAndSet(head, next, next.next)) {
-                        return Optional.of(next.thread);
-                    }
+            Node headRef = head;
+            Node next = (Node) Node.NEXT.getAcquire(headRef);
+            if (next == null) {
+                return null;
+            }
+            Thread thread = next.thread;
+            if (thread != null) {
+                return thread;
+            }
+            // front node was cancelled, drop it
+            advance(headRef, next);
+        }
+    }
+
+    /**
+     * Check if the queue holds no threads.
+     * @return True if empty
+     */
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    // make next the new dummy node, fixing tail first if it is lagging behind,
+    // and retire the old dummy node
+    private boolean advance(Node headRef, Node next) {
+        Node tailRef = tail;
+        if (headRef == tailRef) {
+            TAIL.compareAndSet(this, tailRef, next);
+        }
+        if (HEAD.compareAndSet(this, headRef, next)) {
+            NODES.retire(headRef);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Poll a thread from the front of the queue without allocating.
+     * @return The first thread, or null if the queue is empty
+     */
+    public Thread pollThread() {
+        NODES.enter();
+        try {
+            return first();
+        }
+        finally {
+            NODES.exit();
+        }
+    }
+
+    private Thread first() {
+        for (;;) {
+            Node headRef = head;
+            Node next = (Node) Node.NEXT.getAcquire(headRef);
+            // queue is empty, return nothing
+            if (next == null) {
+                return null;
+            }
+            if (advance(headRef, next)) {
+                // claim the thread, unless its node was cancelled
+                Thread thread = (Thread) Node.THREAD.getAndSet(next, null);
+                if (thread != null) {
+                    return thread;
                 }
             }
         }
     }
 
+    /**
+     * Poll a thread from the front of the queue.
+     * @return Optional containing a thread object or nothing
+     */
+    public Optional<Thread> poll() {
+        return Optional.ofNullable(pollThread());
+    }
+
     /**
      * Remove all threads from queue and return them in a set
      * @return Set containing all threads in this queue
      */
     public Set<Thread> pollAll() {
-        Set<Thread> threads = new TreeSet<>();
+        Set<Thread> threads = new LinkedHashSet<>();
         for (;;) {
             Optional<Thread> thread = poll();
             if (thread.isPresent()) {
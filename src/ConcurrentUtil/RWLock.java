@@ -1,20 +1,65 @@
 package ConcurrentUtil;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 public class RWLock {
 
     private int readers;
     private int writers;
     private int waitingWriters;
+    // odd while a writer holds the lock, bumped on every write lock and unlock
+    private volatile long version;
     private final Mutex lock;
     private final Condition readCondition;
     private final Condition writeCondition;
+    private static final VarHandle VERSION;
+    static {
+        try {
+            VERSION = MethodHandles.lookup().
+                    findVarHandle(RWLock.class, "version", long.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
 
     public RWLock() {
+        // starts above zero, which is never a valid stamp
+        version = 2L;
         lock = new Mutex();
         readCondition = new Condition();
         writeCondition = new Condition();
     }
 
+    /**
+     * Start an optimistic read. Read the guarded data without locking, then call
+     * validate; if it fails, the data may be inconsistent and must be read again
+     * under lockRead. Writes nothing to shared memory.
+     * @return Stamp for validate, zero if a writer holds the lock
+     */
+    public long tryOptimisticRead() {
+        long v = version;
+        return (v & 1L) == 0L ? v : 0L;
+    }
+
+    /**
+     * Check that no writer has held the lock since a stamp was taken.
+     * @param stamp Stamp returned by tryOptimisticRead
+     * @return True if reads made since the stamp was taken are consistent
+     */
+    public boolean validate(long stamp) {
+        // keep the optimistic reads from moving past the version check
+        VarHandle.acquireFence();
+        return stamp != 0L && version == stamp;
+    }
+
+    // called with lock held when a writer takes or releases the lock, the
+    // atomic update keeps the writer's data writes from moving before it
+    private void bumpVersion() {
+        VERSION.getAndAdd(this, 1L);
+    }
+
     /**
      * Attempt to lock for a read.
      * @throws InterruptedException
@@ -66,6 +111,7 @@ public class RWLock {
             for (;;) {
                 if (readers == 0 && writers == 0) {
                     writers++;
+                    bumpVersion();
                     break;
                 }
                 waitingWriters++;
@@ -86,6 +132,7 @@ public class RWLock {
         lock.lock();
         try {
             if (--writers == 0) {
+                bumpVersion();
                 if (waitingWriters > 0) {
                     writeCondition.signal();
                 }
@@ -109,6 +156,7 @@ public class RWLock {
             for (;;) {
                 if (--readers == 0 && writers == 0) {
                     writers++;
+                    bumpVersion();
                     break;
                 }
                 waitingWriters++;
@@ -130,6 +178,7 @@ public class RWLock {
         try {
             writers--;
             readers++;
+            bumpVersion();
             readCondition.signalAll();
         }
         finally {
@@ -0,0 +1,252 @@
+package ConcurrentUtil;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for many producers and many consumers, on a ring of
+ * slots that each carry a sequence number. A slot whose sequence equals a
+ * producer's position is free to write, and one position past it is ready to
+ * read, so a producer or consumer claims a slot with a single CAS on its
+ * counter and never allocates. The two counters sit on their own cache lines
+ * so producers and consumers do not invalidate each other's line.
+ * offer and poll never block; put and take wait with the wait strategy.
+ * @param <E> Element type
+ */
+public class RingBuffer<E> {
+
+    /**
+     * How put and take wait for a slot.
+     */
+    public enum WaitStrategy {
+        // busy spin, lowest latency while every thread has its own core
+        SPIN,
+        // give up the core between checks
+        YIELD,
+        // spin, then yield, then sleep briefly between checks
+        PARK
+    }
+
+    // longs between the counters, 128 bytes so they never share a cache line
+    private static final int PAD = 16;
+    private static final int TAIL = PAD;
+    private static final int HEAD = 2 * PAD;
+    private static final long PARK_NANOS = 10_000;
+    private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private final Object[] elements;
+    private final long[] sequences;
+    private final int mask;
+    // next position to write at TAIL and to read at HEAD, padded apart
+    private final long[] counters;
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Create a ring buffer that parks when it has to wait.
+     * @param capacity Most elements held, rounded up to a power of 2
+     */
+    public RingBuffer(int capacity) {
+        this(capacity, WaitStrategy.PARK);
+    }
+
+    /**
+     * Create a ring buffer.
+     * @param capacity Most elements held, rounded up to a power of 2
+     * @param waitStrategy How put and take wait
+     */
+    public RingBuffer(int capacity, WaitStrategy waitStrategy) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        elements = new Object[size];
+        sequences = new long[size];
+        for (int i = 0; i < size; i++) {
+            sequences[i] = i;
+        }
+        mask = size - 1;
+        counters = new long[3 * PAD];
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int getCapacity() {
+        return elements.length;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Add an element at the tail if there is room.
+     * @param value Element to add, not null
+     * @return True if the element was added, false if the buffer is full
+     */
+    public boolean offer(E value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        long tail = (long) COUNTERS.getVolatile(counters, TAIL);
+        for (;;) {
+            int slot = (int) tail & mask;
+            long diff = (long) SEQUENCES.getAcquire(sequences, slot) - tail;
+            if (diff == 0) {
+                long witness = (long) COUNTERS.compareAndExchange(counters, TAIL, tail, tail + 1);
+                if (witness == tail) {
+                    ELEMENTS.setOpaque(elements, slot, value);
+                    // publish the element to the consumer of this position
+                    SEQUENCES.setRelease(sequences, slot, tail + 1);
+                    return true;
+                }
+                tail = witness;
+            }
+            else if (diff < 0) {
+                // the slot still holds the element from one lap ago
+                return false;
+            }
+            else {
+                // another producer took this position, catch up
+                tail = (long) COUNTERS.getVolatile(counters, TAIL);
+            }
+        }
+    }
+
+    /**
+     * Remove the element at the head if there is one.
+     * @return The element, or null if the buffer is empty
+     */
+    public E poll() {
+        long head = (long) COUNTERS.getVolatile(counters, HEAD);
+        for (;;) {
+            int slot = (int) head & mask;
+            long diff = (long) SEQUENCES.getAcquire(sequences, slot) - (head + 1);
+            if (diff == 0) {
+                long witness = (long) COUNTERS.compareAndExchange(counters, HEAD, head, head + 1);
+                if (witness == head) {
+                    return take(slot, head);
+                }
+                head = witness;
+            }
+            else if (diff < 0) {
+                // not written yet
+                return null;
+            }
+            else {
+                head = (long) COUNTERS.getVolatile(counters, HEAD);
+            }
+        }
+    }
+
+    // read a claimed slot and hand it to the producer one lap ahead
+    private E take(int slot, long position) {
+        E value = (E) ELEMENTS.getOpaque(elements, slot);
+        ELEMENTS.setOpaque(elements, slot, null);
+        SEQUENCES.setRelease(sequences, slot, position + elements.length);
+        return value;
+    }
+
+    /**
+     * Add an element at the tail, waiting while the buffer is full.
+     * @param value Element to add, not null
+     * @throws InterruptedException Thread is interrupted while waiting
+     */
+    public void put(E value) throws InterruptedException {
+        for (int idle = 0; !offer(value); idle++) {
+            await(idle);
+        }
+    }
+
+    /**
+     * Remove the element at the head, waiting while the buffer is empty.
+     * @return The element
+     * @throws InterruptedException Thread is interrupted while waiting
+     */
+    public E take() throws InterruptedException {
+        for (int idle = 0; ; idle++) {
+            E value = poll();
+            if (value != null) {
+                return value;
+            }
+            await(idle);
+        }
+    }
+
+    /**
+     * Remove up to maxElements ready elements from the head in one claim and
+     * add them to a collection. Never waits.
+     * @param c Collection to add to
+     * @param maxElements Most elements to remove
+     * @return Number of elements removed
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        for (;;) {
+            long head = (long) COUNTERS.getVolatile(counters, HEAD);
+            // count the consecutive slots already written
+            int n = 0;
+            while (n < maxElements && n < elements.length
+                    && (long) SEQUENCES.getAcquire(sequences, (int) (head + n) & mask) == head + n + 1) {
+                n++;
+            }
+            if (n == 0) {
+                // a consumer may have moved the head past the slots checked
+                if (head == (long) COUNTERS.getVolatile(counters, HEAD)) {
+                    return 0;
+                }
+                continue;
+            }
+            // written slots stay written until the head passes them, so the range is ours
+            if (COUNTERS.compareAndSet(counters, HEAD, head, head + n)) {
+                for (int i = 0; i < n; i++) {
+                    c.add(take((int) (head + i) & mask, head + i));
+                }
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Get the number of elements. Only a snapshot while other threads are running.
+     * @return Number of elements, between 0 and the capacity
+     */
+    public int size() {
+        for (;;) {
+            long head = (long) COUNTERS.getVolatile(counters, HEAD);
+            long tail = (long) COUNTERS.getVolatile(counters, TAIL);
+            // retry if a consumer moved the head between the two reads
+            if (head == (long) COUNTERS.getVolatile(counters, HEAD)) {
+                return (int) Math.max(0, Math.min(tail - head, elements.length));
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // wait once, idle is the number of times this call already waited
+    private void await(int idle) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        switch (waitStrategy) {
+            case SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            default:
+                if (idle < 64) {
+                    Thread.onSpinWait();
+                }
+                else if (idle < 128) {
+                    Thread.yield();
+                }
+                else {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+package ConcurrentUtil;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Lock-free priority queue on a skip list ordered by primitive long keys,
+ * smallest first, in the style of Lotan and Shavit. An entry is taken by the
+ * thread that claims it with a CAS, which is when poll and remove take
+ * effect. The claiming thread then marks the entry's next references from the
+ * top level down and unlinks it, as in the lock-free skip list of Herlihy and
+ * Shavit; traversals help by unlinking the marked entries they pass.
+ * A next reference is marked by swapping in a Marked wrapping it, so reading
+ * one costs a single load, where an AtomicMarkableReference costs two.
+ * poll takes the smallest entry it finds unclaimed on the bottom level, so
+ * an entry inserted while a poll is under way may be passed over by it.
+ * Keys are unique. To order by price, then by time, combine the two with key.
+ * @param <V> Value type
+ */
+public class SkipListQueue<V> {
+
+    // levels of the head, enough for 2^24 entries at 1 in 2 entries per level
+    private static final int MAX_LEVEL = 24;
+    private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Object[].class);
+    // preds then succs of each thread's insert, shared by all queues since an
+    // insert never runs inside another. Holds on to at most 2 * MAX_LEVEL entries
+    private static final ThreadLocal<Object[]> SCRATCH =
+            ThreadLocal.withInitial(() -> new Object[2 * MAX_LEVEL]);
+
+    // next reference of an entry being removed, never changes again. It is an
+    // Entry so that every next reference reads as one
+    private static final class Marked<V> extends Entry<V> {
+        final Entry<V> target;
+        Marked(Entry<V> target) {
+            this.target = target;
+        }
+    }
+
+    /**
+     * Key and value of an entry. Entries are never reused, so one returned by
+     * poll or peek stays valid.
+     * @param <V> Value type
+     */
+    public static class Entry<V> {
+        final long key;
+        final V value;
+        // per level, the next entry, or a Marked once this entry is being removed
+        final Object[] next;
+        // set once by the thread taking the entry off the queue
+        volatile boolean claimed;
+        static final VarHandle CLAIMED;
+        static {
+            try {
+                CLAIMED = MethodHandles.lookup().
+                        findVarHandle(Entry.class, "claimed", boolean.class);
+            }
+            catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+
+        Entry(long key, V value, int levels) {
+            this.key = key;
+            this.value = value;
+            next = new Object[levels];
+        }
+
+        // a Marked, never linked as an entry
+        private Entry() {
+            key = 0;
+            value = null;
+            next = null;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        boolean claim() {
+            return !claimed && CLAIMED.compareAndSet(this, false, true);
+        }
+    }
+
+    // never holds a value, its key is never compared
+    private final Entry<V> head;
+
+    /**
+     * Create a new empty SkipListQueue.
+     */
+    public SkipListQueue() {
+        head = new Entry<>(Long.MIN_VALUE, null, MAX_LEVEL);
+    }
+
+    /**
+     * Combine a price and a time into one key, ordered by price and then by
+     * time. For the highest price first, pass the negated price.
+     * @param price Price, in cents or ticks
+     * @param time Sequence number or time, non-negative
+     * @return Key ordering by price, then by time
+     */
+    public static long key(int price, int time) {
+        return ((long) price << 32) | (time & 0xffff_ffffL);
+    }
+
+    // 1 to MAX_LEVEL, each level half as likely as the one below
+    private static int randomLevels() {
+        return Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt() | (1 << (MAX_LEVEL - 1))) + 1;
+    }
+
+    // next reference on a level, a Marked if the entry is being removed
+    private static <V> Entry<V> entryAt(Object[] next, int level) {
+        return (Entry<V>) NEXT.getAcquire(next, level);
+    }
+
+    // next entry on a level, marked or not
+    private static <V> Entry<V> nextOf(Entry<V> entry, int level) {
+        Entry<V> next = entryAt(entry.next, level);
+        return next instanceof Marked<?> ? ((Marked<V>) next).target : next;
+    }
+
+    /**
+     * Find the first entry at or after key on every level, unlinking the
+     * marked entries on the way.
+     * @param scratch Array for the last entry before key on every level, then
+     *                the first at or after it, or null if only the bottom level counts
+     * @return The first entry at or after key on the bottom level, or null
+     */
+    private Entry<V> find(long key, Object[] scratch) {
+        retry:
+        for (;;) {
+            Entry<V> pred = head;
+            Entry<V> curr = null;
+            for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+                curr = entryAt(pred.next, level);
+                // pred is being removed itself
+                if (curr instanceof Marked<?>) {
+                    continue retry;
+                }
+                while (curr != null) {
+                    Entry<V> next = entryAt(curr.next, level);
+                    // curr is being removed, unlink it at this level
+                    if (next instanceof Marked<?>) {
+                        Entry<V> succ = ((Marked<V>) next).target;
+                        if (!NEXT.compareAndSet(pred.next, level, curr, succ)) {
+                            continue retry;
+                        }
+                        curr = succ;
+                        continue;
+                    }
+                    if (curr.key >= key) {
+                        break;
+                    }
+                    pred = curr;
+                    curr = next;
+                }
+                if (scratch != null) {
+                    scratch[level] = pred;
+                    scratch[MAX_LEVEL + level] = curr;
+                }
+            }
+            return curr;
+        }
+    }
+
+    /**
+     * Add an entry.
+     * @param key Key of the entry
+     * @param value Value of the entry
+     * @return True if the entry was added, false if an entry with key was already queued
+     */
+    public boolean insert(long key, V value) {
+        Object[] scratch = SCRATCH.get();
+        Entry<V> entry = null;
+        for (;;) {
+            Entry<V> found = find(key, scratch);
+            if (found != null && found.key == key) {
+                if (!found.claimed) {
+                    return false;
+                }
+                // taken but still linked, finish its removal and look again
+                unlink(found);
+                continue;
+            }
+            if (entry == null) {
+                entry = new Entry<>(key, value, randomLevels());
+            }
+            System.arraycopy(scratch, MAX_LEVEL, entry.next, 0, entry.next.length);
+            // linking the bottom level adds the entry, the others only speed up searches
+            if (NEXT.compareAndSet(((Entry<?>) scratch[0]).next, 0, found, entry)) {
+                break;
+            }
+        }
+        for (int level = 1; level < entry.next.length; level++) {
+            for (;;) {
+                Object succ = scratch[MAX_LEVEL + level];
+                Object expected = NEXT.getAcquire(entry.next, level);
+                // a marked reference means the entry is already being removed
+                if (expected instanceof Marked<?>
+                        || (expected != succ && !NEXT.compareAndSet(entry.next, level, expected, succ))) {
+                    return true;
+                }
+                if (NEXT.compareAndSet(((Entry<?>) scratch[level]).next, level, succ, entry)) {
+                    break;
+                }
+                if (find(key, scratch) != entry) {
+                    // removed while linking
+                    return true;
+                }
+            }
+        }
+        return true;
+    }
+
+    // mark every level of a claimed entry, top down, then unlink it
+    private void unlink(Entry<V> entry) {
+        boolean front = true;
+        for (int level = entry.next.length - 1; level >= 0; level--) {
+            Entry<V> next = entryAt(entry.next, level);
+            while (!(next instanceof Marked<?>)) {
+                Marked<V> marked = new Marked<>(next);
+                next = NEXT.compareAndSet(entry.next, level, next, marked) ? marked : entryAt(entry.next, level);
+            }
+            // a polled entry is usually first on every level, unlink it from the head
+            front = front && NEXT.compareAndSet(head.next, level, entry, ((Marked<V>) next).target);
+        }
+        if (!front) {
+            find(entry.key, null);
+        }
+    }
+
+    /**
+     * Remove the entry with the smallest key.
+     * @return The entry, or null if the queue is empty
+     */
+    public Entry<V> poll() {
+        for (Entry<V> curr = nextOf(head, 0); curr != null; curr = nextOf(curr, 0)) {
+            if (curr.claim()) {
+                unlink(curr);
+                return curr;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the entry with the smallest key without removing it.
+     * @return The entry, or null if the queue is empty
+     */
+    public Entry<V> peek() {
+        for (Entry<V> curr = nextOf(head, 0); curr != null; curr = nextOf(curr, 0)) {
+            if (!curr.claimed) {
+                return curr;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the entry with a key.
+     * @param key Key of the entry
+     * @return True if this call removed the entry, false if it was not queued
+     */
+    public boolean remove(long key) {
+        Entry<V> entry = find(key, null);
+        if (entry == null || entry.key != key || !entry.claim()) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * Check if an entry with a key is queued.
+     * @param key Key to look for
+     * @return True if an entry with key is queued and not yet taken
+     */
+    public boolean contains(long key) {
+        Entry<V> pred = head;
+        for (int level = MAX_LEVEL - 1; level > 0; level--) {
+            Entry<V> curr = nextOf(pred, level);
+            while (curr != null && curr.key < key) {
+                pred = curr;
+                curr = nextOf(curr, level);
+            }
+        }
+        // only the bottom level is exact, a taken entry may linger above it
+        Entry<V> curr = nextOf(pred, 0);
+        while (curr != null && curr.key <= key) {
+            if (curr.key == key && !curr.claimed) {
+                return true;
+            }
+            curr = nextOf(curr, 0);
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+}
@@ -0,0 +1,244 @@
+package ConcurrentUtil;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hash table split into independently locked stripes. Each stripe owns a group of
+ * buckets, its own ReadWriteLock and its own resize, so threads working on
+ * different stripes never touch the same lock.
+ */
+public class StripedHashTable {
+
+    private static final class Stripe {
+        LinkedList[] nodes;
+        final AtomicInteger size;
+        final ReadWriteLock lock;
+        Stripe() {
+            nodes = new LinkedList[4];
+            Arrays.setAll(nodes, e -> new LinkedList());
+            size = new AtomicInteger(0);
+            lock = new ReentrantReadWriteLock();
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    /**
+     * Create a table with 16 stripes.
+     */
+    public StripedHashTable() {
+        this(16);
+    }
+
+    /**
+     * Create a table with a given number of stripes.
+     * @param stripeCount Number of stripes, rounded up to a power of 2
+     */
+    public StripedHashTable(int stripeCount) {
+        int count = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        stripes = new Stripe[count];
+        Arrays.setAll(stripes, e -> new Stripe());
+        // stripes are picked from the high bits of the mixed hash, buckets from the low bits
+        stripeShift = 32 - Integer.numberOfTrailingZeros(count);
+    }
+
+    private Stripe stripeFor(int hash) {
+        // short tickers have small hash codes, multiply so the high bits vary
+        return stripes.length == 1 ? stripes[0] : stripes[(hash * 0x9E3779B9) >>> stripeShift];
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            size += s.size.get();
+        }
+        return size;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    // create new nodes array with double the size, re-add nodes
+    private void resize(Stripe stripe, int capacity) {
+        stripe.lock.writeLock().lock();
+        try {
+            // another thread already resized this stripe
+            if (stripe.nodes.length != capacity) {
+                return;
+            }
+            LinkedList[] newNodes = new LinkedList[capacity * 2];
+            Arrays.setAll(newNodes, e -> new LinkedList());
+            for (LinkedList list : stripe.nodes) {
+                list.getEntries().forEach((e) -> {
+                    newNodes[e.key.hashCode() & (newNodes.length - 1)].add(e.key, e.value);
+                });
+            }
+            stripe.nodes = newNodes;
+        }
+        finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the set of all keys in this hash table.
+     * @return The set of all keys in this Hash Table
+     */
+    public Set<String> getKeys() throws InterruptedException {
+        Set<String> keys = new TreeSet<>();
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                for (LinkedList list : stripe.nodes) {
+                    keys.addAll(list.getKeys());
+                }
+            }
+            finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Get the value associated with String key
+     * @param key String key to search for
+     * @return The value, or zero if it is not found
+     */
+    public float getValue(String key) throws InterruptedException {
+        int hash = key.hashCode();
+        Stripe stripe = stripeFor(hash);
+        stripe.lock.readLock().lock();
+        try {
+            LinkedList[] nodes = stripe.nodes;
+            Optional<Float> value = nodes[hash & (nodes.length - 1)].getValue(key);
+            return value.orElse(0f);
+        }
+        finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Update the value associated with a String key
+     * @param key String key to search for
+     * @param newValue New value to update to
+     * @throws InterruptedException Thread is interrupted
+     */
+    public void updatePair(String key, float newValue) throws InterruptedException {
+        int hash = key.hashCode();
+        Stripe stripe = stripeFor(hash);
+        stripe.lock.readLock().lock();
+        try {
+            LinkedList[] nodes = stripe.nodes;
+            nodes[hash & (nodes.length - 1)].setValue(key, newValue);
+        }
+        finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Modify the value of all stocks, one stripe at a time.
+     * @throws InterruptedException Thread is interrupted
+     */
+    public void modifyValues() throws InterruptedException {
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                for (LinkedList list : stripe.nodes) {
+                    list.modifyValues();
+                }
+            }
+            finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Get a random key value pairing from this Hash Table.
+     * @return A key value pair
+     * @throws InterruptedException Thread is interrupted
+     */
+    public Tuple<String, Float> getRandom() throws InterruptedException {
+        for (;;) {
+            Stripe stripe = stripes[ThreadLocalRandom.current().nextInt(stripes.length)];
+            stripe.lock.readLock().lock();
+            try {
+                LinkedList[] nodes = stripe.nodes;
+                Tuple<String, Float> tuple =
+                        nodes[ThreadLocalRandom.current().nextInt(nodes.length)].getRandom();
+                // make sure there was actually a value
+                if (tuple != null) {
+                    return tuple;
+                }
+            }
+            finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Add a key value pair to the Hash Table
+     * @param key String key to add
+     * @param value floating point value to add
+     */
+    public void add(String key, float value) throws InterruptedException {
+        int hash = key.hashCode();
+        Stripe stripe = stripeFor(hash);
+        int capacity;
+        int size;
+        stripe.lock.readLock().lock();
+        try {
+            LinkedList[] nodes = stripe.nodes;
+            capacity = nodes.length;
+            // add value to a present key, or insert it, in one traversal
+            long result = nodes[hash & (capacity - 1)].upsert(key, value, Float::sum, null);
+            if (LinkedList.status(result) != LinkedList.INSERTED) {
+                return;
+            }
+            size = stripe.size.incrementAndGet();
+        }
+        finally {
+            stripe.lock.readLock().unlock();
+        }
+        // resize if size >= 75% capacity, the read lock is released first
+        if (size >= 0.75 * capacity) {
+            resize(stripe, capacity);
+        }
+    }
+
+    /**
+     * Remove entry with String key from the Hash Table
+     * @param key String key to remove
+     * @return True if removal is successful
+     */
+    public boolean remove(String key) throws InterruptedException {
+        int hash = key.hashCode();
+        Stripe stripe = stripeFor(hash);
+        stripe.lock.readLock().lock();
+        try {
+            LinkedList[] nodes = stripe.nodes;
+            boolean success = nodes[hash & (nodes.length - 1)].remove(key);
+            if (success) {
+                stripe.size.decrementAndGet();
+            }
+            return success;
+        }
+        finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+}
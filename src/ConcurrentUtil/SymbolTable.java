@@ -0,0 +1,56 @@
+package ConcurrentUtil;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable dictionary giving each ticker symbol a dense integer id, so prices and
+ * holdings can be kept in arrays indexed by id. Strings are only needed to build
+ * the table and for reporting.
+ */
+public class SymbolTable {
+
+    private final String[] symbols;
+    private final Map<String, Integer> ids;
+
+    /**
+     * Create a symbol table. Ids follow the order of symbols, duplicates are dropped.
+     * @param symbols String ticker symbols
+     */
+    public SymbolTable(String[] symbols) {
+        ids = new HashMap<>();
+        String[] unique = new String[symbols.length];
+        int size = 0;
+        for (String symbol : symbols) {
+            if (ids.putIfAbsent(symbol, size) == null) {
+                unique[size++] = symbol;
+            }
+        }
+        this.symbols = size == unique.length ? unique : Arrays.copyOf(unique, size);
+    }
+
+    public int getSize() {
+        return symbols.length;
+    }
+
+    /**
+     * Get the id of a symbol.
+     * @param symbol String ticker symbol
+     * @return Id of the symbol, or -1 if it is not in this table
+     */
+    public int idOf(String symbol) {
+        Integer id = ids.get(symbol);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the symbol with an id.
+     * @param id Id of a symbol in this table
+     * @return String ticker symbol
+     */
+    public String symbolOf(int id) {
+        return symbols[id];
+    }
+
+}
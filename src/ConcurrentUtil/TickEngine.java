@@ -0,0 +1,136 @@
+package ConcurrentUtil;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Applies a price tick to a columnar float[] of prices in parallel chunks.
+ * Each price moves by drift + volatility * z. z combines two windows of a fixed
+ * table of gaussian values, each at its own random offset per chunk, so
+ * neighbouring prices do not just see shifted windows of one sequence. Drawing
+ * from the table keeps the inner loop free of calls, so the JIT can vectorize
+ * it. The ticks are only approximately independent: every z is one of a
+ * finite set of combinations of table values.
+ */
+public class TickEngine {
+
+    // prices per fork join task, small enough to split a large market across cores
+    private static final int CHUNK = 8192;
+    private static final int NOISE_SIZE = 1 << 16;
+    // scales the sum of two standard gaussians back to a standard gaussian
+    private static final float HALF_SQRT2 = (float) Math.sqrt(0.5);
+    // NOISE_SIZE gaussian values followed by a copy of the first CHUNK, so a chunk
+    // starting at any offset below NOISE_SIZE reads contiguously
+    private static final float[] NOISE;
+    static {
+        Random random = new Random(375);
+        NOISE = new float[NOISE_SIZE + CHUNK];
+        for (int i = 0; i < NOISE_SIZE; i++) {
+            NOISE[i] = (float) random.nextGaussian();
+        }
+        System.arraycopy(NOISE, 0, NOISE, NOISE_SIZE, CHUNK);
+    }
+
+    private final float[] drift;
+    private final float[] volatility;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create an engine with no drift and unit volatility for every price.
+     * @param size Number of prices
+     */
+    public TickEngine(int size) {
+        this(new float[size], filled(size, 1f));
+    }
+
+    /**
+     * Create an engine with a drift and volatility per price.
+     * @param drift Expected move of each price per tick
+     * @param volatility Standard deviation of each price per tick
+     */
+    public TickEngine(float[] drift, float[] volatility) {
+        if (drift.length != volatility.length) {
+            throw new IllegalArgumentException("drift and volatility lengths differ");
+        }
+        this.drift = drift.clone();
+        this.volatility = volatility.clone();
+        pool = ForkJoinPool.commonPool();
+    }
+
+    private static float[] filled(int size, float value) {
+        float[] array = new float[size];
+        Arrays.fill(array, value);
+        return array;
+    }
+
+    public int getSize() {
+        return drift.length;
+    }
+
+    /**
+     * Tick prices in place.
+     * @param prices Prices to modify
+     */
+    public void tick(float[] prices) {
+        tick(prices, prices);
+    }
+
+    /**
+     * Write the ticked value of every price in src to dst.
+     * @param src Current prices
+     * @param dst Array for the new prices, may be src
+     */
+    public void tick(float[] src, float[] dst) {
+        if (src.length != drift.length || dst.length != drift.length) {
+            throw new IllegalArgumentException("price array length does not match engine");
+        }
+        if (src.length <= CHUNK) {
+            tickRange(src, dst, 0, src.length);
+        }
+        else {
+            pool.invoke(new TickTask(src, dst, 0, src.length));
+        }
+    }
+
+    // the hot loop: plain indexed float arithmetic over equal length arrays
+    private void tickRange(float[] src, float[] dst, int from, int to) {
+        float[] d = drift;
+        float[] v = volatility;
+        float[] noise = NOISE;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(NOISE_SIZE) - from;
+        int second = random.nextInt(NOISE_SIZE) - from;
+        for (int i = from; i < to; i++) {
+            dst[i] = src[i] + d[i] + v[i] * HALF_SQRT2 * (noise[i + first] + noise[i + second]);
+        }
+    }
+
+    private final class TickTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final float[] src;
+        final float[] dst;
+        final int from;
+        final int to;
+
+        TickTask(float[] src, float[] dst, int from, int to) {
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                tickRange(src, dst, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TickTask(src, dst, from, mid), new TickTask(src, dst, mid, to));
+        }
+    }
+
+}
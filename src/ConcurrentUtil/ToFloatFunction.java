@@ -0,0 +1,12 @@
+package ConcurrentUtil;
+
+/**
+ * Function producing a float from a value, without boxing.
+ * @param <T> Type of the input
+ */
+@FunctionalInterface
+public interface ToFloatFunction<T> {
+
+    float applyAsFloat(T value);
+
+}
@@ -0,0 +1,115 @@
+package ConcurrentUtil;
+
+/**
+ * Prices published as immutable, numbered versions. A single writer builds each
+ * new version off to the side and publishes it with one volatile write, so
+ * readers pin a whole consistent tick with one volatile read and no locks.
+ */
+public class VersionedPrices {
+
+    /**
+     * One immutable version of every price.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final float[] prices;
+        private final SymbolTable symbols;
+
+        private Snapshot(long version, float[] prices, SymbolTable symbols) {
+            this.version = version;
+            this.prices = prices;
+            this.symbols = symbols;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public int getSize() {
+            return prices.length;
+        }
+
+        /**
+         * Get the price of a ticker in this version.
+         * @param id Id of the ticker
+         * @return Price
+         */
+        public float get(int id) {
+            return prices[id];
+        }
+
+        /**
+         * Get the price of a ticker in this version.
+         * @param ticker String ticker symbol
+         * @return Price, or zero if the ticker is unknown
+         */
+        public float get(String ticker) {
+            int id = symbols.idOf(ticker);
+            return id < 0 ? 0f : prices[id];
+        }
+    }
+
+    private final SymbolTable symbols;
+    private final TickEngine engine;
+    private volatile Snapshot current;
+
+    /**
+     * Create version 0 from a set of tickers and their starting prices.
+     * Ticks have no drift and unit volatility.
+     * @param tickers String ticker symbols
+     * @param prices Starting price of each ticker
+     */
+    public VersionedPrices(String[] tickers, float[] prices) {
+        this(new SymbolTable(tickers), prices);
+    }
+
+    /**
+     * Create version 0 from a symbol table and starting prices indexed by id.
+     * Ticks have no drift and unit volatility.
+     * @param symbols Tickers and their ids
+     * @param prices Starting price of each ticker
+     */
+    public VersionedPrices(SymbolTable symbols, float[] prices) {
+        this(symbols, prices, new TickEngine(symbols.getSize()));
+    }
+
+    /**
+     * Create version 0 from a symbol table and starting prices indexed by id.
+     * @param symbols Tickers and their ids
+     * @param prices Starting price of each ticker
+     * @param engine Engine computing each tick, sized for symbols
+     */
+    public VersionedPrices(SymbolTable symbols, float[] prices, TickEngine engine) {
+        this.symbols = symbols;
+        this.engine = engine;
+        current = new Snapshot(0, prices.clone(), symbols);
+    }
+
+    /**
+     * Pin the latest version.
+     * @return Snapshot that never changes
+     */
+    public Snapshot current() {
+        return current;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public int getSize() {
+        return symbols.getSize();
+    }
+
+    /**
+     * Publish a new version with every price moved by the tick engine.
+     * Only one thread may publish versions.
+     */
+    public void tick() {
+        Snapshot last = current;
+        float[] prices = new float[last.prices.length];
+        engine.tick(last.prices, prices);
+        current = new Snapshot(last.version + 1, prices, symbols);
+    }
+
+}
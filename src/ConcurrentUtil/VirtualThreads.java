@@ -0,0 +1,63 @@
+package ConcurrentUtil;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads where the running JDK has them (Java 21 and later), looked up
+ * by reflection so the code still builds and runs on older JDKs.
+ */
+public final class VirtualThreads {
+
+    // Executors.newVirtualThreadPerTaskExecutor, null before Java 21
+    private static final Method NEW_EXECUTOR = find();
+
+    private VirtualThreads() {
+    }
+
+    private static Method find() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if this JDK has virtual threads.
+     * @return True if newThreadPerTaskExecutor can be used
+     */
+    public static boolean isSupported() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * Create an executor that starts each task on a new virtual thread.
+     * The carrier count is read when the first virtual thread starts, so it
+     * only takes effect if no virtual thread has been started yet and it was
+     * not set on the command line.
+     * @param carriers Maximum number of platform threads running virtual threads
+     * @return The executor, or null if this JDK has no virtual threads
+     */
+    public static ExecutorService newThreadPerTaskExecutor(int carriers) {
+        if (NEW_EXECUTOR == null) {
+            return null;
+        }
+        String count = Integer.toString(carriers);
+        if (System.getProperty("jdk.virtualThreadScheduler.parallelism") == null) {
+            System.setProperty("jdk.virtualThreadScheduler.parallelism", count);
+        }
+        if (System.getProperty("jdk.virtualThreadScheduler.maxPoolSize") == null) {
+            System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", count);
+        }
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package CustomSim;
+
+import ConcurrentUtil.MpscQueue;
+import ConcurrentUtil.OwnedTable;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trader placing limit orders in the order books of a matching engine, against
+ * the orders of the other traders. Orders go to the engine and come back on
+ * orders once filled or cancelled, to be reused. Each order is for one share
+ * at up to 1% from the last trade price. A trader has at most MAX_ORDERS
+ * orders in flight and cancels its oldest order when it needs another one.
+ * Only the creating thread may use this trader.
+ */
+public class BookTrader implements Trading {
+
+    // most orders a trader has in flight
+    private static final int MAX_ORDERS = 64;
+
+    // value and shares held of each owned stock by symbol id
+    private final OwnedTable shares;
+    private long profit = 0;
+    private final MatchingEngine engine;
+    private final MpscQueue<Order> orders;
+    private final Order[] freeOrders;
+    private int freeOrderCount;
+    // orders in the order they were sent, with their submit time to tell a
+    // reused order from the one sent earlier, the oldest is cancelled first
+    private final Order[] sent;
+    private final long[] sentAt;
+    private int sentHead;
+    private int sentCount;
+    // shares taken off the holdings for sells still in flight
+    private int reserved;
+
+    /**
+     * Create a new BookTrader. The market must be loaded first.
+     * @param engine Matching engine holding the books
+     */
+    public BookTrader(MatchingEngine engine) {
+        shares = new OwnedTable();
+        this.engine = engine;
+        orders = new MpscQueue<>();
+        freeOrders = new Order[MAX_ORDERS];
+        for (int i = 0; i < MAX_ORDERS; i++) {
+            freeOrders[i] = new Order(orders);
+        }
+        freeOrderCount = MAX_ORDERS;
+        sent = new Order[2 * MAX_ORDERS];
+        sentAt = new long[2 * MAX_ORDERS];
+    }
+
+    // apply the orders that came back from the engine since the last call
+    private void settleOrders() {
+        for (Order order = orders.poll(); order != null; order = orders.poll()) {
+            if (!order.settle()) {
+                // a cancel is still on its way back
+                continue;
+            }
+            int id = order.getId();
+            int filled = order.getFilled();
+            float value = order.getFilledValue() / 100f;
+            if (order.isBuy()) {
+                for (int i = 0; i < filled; i++) {
+                    shares.addAndGet(id, value / filled);
+                }
+                profit -= value;
+            }
+            else {
+                profit += value;
+                // shares set aside for the sell but not sold go back to the holding,
+                // shares sold beyond them were sold short
+                for (int i = filled; i < order.reserved; i++) {
+                    shares.addAndGet(id, engine.getLastPrice(id) / 100f);
+                }
+                reserved -= order.reserved;
+            }
+            freeOrders[freeOrderCount++] = order;
+        }
+    }
+
+    // cancel the oldest order still resting, true if there was one
+    private boolean cancelOldest() {
+        while (sentCount > 0) {
+            Order order = sent[sentHead];
+            long at = sentAt[sentHead];
+            sent[sentHead] = null;
+            sentHead = (sentHead + 1) % sent.length;
+            sentCount--;
+            // skip orders that came back, and were maybe sent again since
+            if (order.inFlight > 0 && order.submitted == at && !order.isCancelling()) {
+                engine.cancel(order);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // send a limit order for one share near the last trade price, setAside is
+    // the number of held shares reserved for a sell
+    private void place(int id, boolean buy, int setAside) {
+        while (freeOrderCount == 0) {
+            if (!cancelOldest()) {
+                // the engine may need this thread's core to catch up
+                Thread.yield();
+            }
+            settleOrders();
+        }
+        if (sentCount == sent.length) {
+            cancelOldest();
+        }
+        int last = engine.getLastPrice(id);
+        int spread = Math.max(1, last / 100);
+        int limit = Math.max(1, last + ThreadLocalRandom.current().nextInt(-spread, spread + 1));
+        Order order = freeOrders[--freeOrderCount];
+        order.reset(id, buy, limit, 1);
+        order.reserved = setAside;
+        engine.submit(order);
+        int tail = (sentHead + sentCount) % sent.length;
+        sent[tail] = order;
+        sentAt[tail] = order.submitted;
+        sentCount++;
+    }
+
+    @Override
+    public long getProfit() {
+        return profit;
+    }
+
+    /**
+     * Purchase a random stock. This places a buy order, which is paid for once
+     * the filled order comes back.
+     */
+    @Override
+    public void purchaseStock() {
+        int id = Market.getInstance().getRandomId();
+        if (id < 0) {
+            return;
+        }
+        settleOrders();
+        place(id, true, 0);
+    }
+
+    /**
+     * Update the values of owned stocks from the last trade prices.
+     */
+    @Override
+    public void updateValues() {
+        settleOrders();
+        for (int i = 0; i < shares.getSize(); i++) {
+            int id = shares.idAt(i);
+            shares.updatePair(id, engine.getLastPrice(id) / 100f);
+        }
+    }
+
+    /**
+     * Sell one share of a stock. The share is set aside until the filled
+     * order comes back, when the sale is credited and a share that did not
+     * sell goes back to the holdings. A trader holding nothing, not even
+     * shares being sold, sells short.
+     */
+    @Override
+    public void sellStock() {
+        settleOrders();
+        int id = shares.getRandomId();
+        if (id >= 0) {
+            shares.removeShares(id, 1);
+            reserved++;
+            place(id, false, 1);
+        }
+        else if (reserved == 0) {
+            // sell short, so buyers find sellers before anyone holds stock
+            id = Market.getInstance().getRandomId();
+            if (id >= 0) {
+                place(id, false, 0);
+            }
+        }
+    }
+
+}
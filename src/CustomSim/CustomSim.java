@@ -1,21 +1,175 @@
 package CustomSim;
 
+import ConcurrentUtil.MarketCache;
+import ConcurrentUtil.VirtualThreads;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class CustomSim {
 
+    // loops a trader runs before giving its thread to another trader
+    private static final int SLICE = 256;
+
     private int numberOfTraders = 16;
-    private ExecutorService traderPool = Executors.newFixedThreadPool(numberOfTraders);
+    private int carrierThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService traderPool;
     private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
-    private ThreadLocal<Trader> trader = ThreadLocal.withInitial(Trader::new);
-    private ThreadLocal<Boolean> update = ThreadLocal.withInitial(() -> Boolean.FALSE);
-    private Future<Long>[] profits = new Future[numberOfTraders];
-    private boolean shouldRun = true;
+    private CompletableFuture<Long>[] profits;
+    private volatile boolean shouldRun = true;
+    // number of market updates so far, traders revalue when it changes
+    private volatile int marketTicks = 0;
+    private boolean versionedPrices = false;
+    private boolean confinedPortfolios = false;
+    private boolean virtualThreads = false;
+    // traders take turns on a fixed pool when virtual threads are unavailable
+    private boolean multiplexed = false;
+    // number of shard threads owning the prices, 0 to use the shared Market
+    private int shards = 0;
+    private ShardedMarket sharded;
+    private int batchSize = 1;
+    private long batchDelay = 0L;
+    private MarketCache cache;
+    // number of shard threads matching limit orders, 0 to trade at the market price
+    private int orderBooks = 0;
+    private MatchingEngine engine;
+    private final AtomicInteger numOfLoops = new AtomicInteger(0);
+
+    /**
+     * Publish market ticks as immutable price versions.
+     * @param versionedPrices True to use versioned prices
+     */
+    public void setVersionedPrices(boolean versionedPrices) {
+        this.versionedPrices = versionedPrices;
+    }
+
+    /**
+     * Keep each trader's holdings in a single-owner table, since every trader is
+     * confined to one task.
+     * @param confinedPortfolios True to use single-owner holdings
+     */
+    public void setConfinedPortfolios(boolean confinedPortfolios) {
+        this.confinedPortfolios = confinedPortfolios;
+    }
+
+    /**
+     * Set the number of traders. Without virtual threads each one gets a platform thread.
+     * @param numberOfTraders Number of traders
+     */
+    public void setNumberOfTraders(int numberOfTraders) {
+        this.numberOfTraders = numberOfTraders;
+    }
+
+    /**
+     * Run each trader on its own virtual thread, over at most carrierThreads
+     * platform threads. On a JDK without virtual threads the traders take turns
+     * on a pool of carrierThreads threads instead.
+     * @param virtualThreads True to use virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Set the number of platform threads running traders in virtual thread mode.
+     * @param carrierThreads Number of platform threads
+     */
+    public void setCarrierThreads(int carrierThreads) {
+        this.carrierThreads = carrierThreads;
+    }
+
+    /**
+     * Partition the market across shard threads, each the only writer of its
+     * prices and orders. Traders send orders to the shards instead of calling
+     * the shared Market.
+     * @param shards Number of shard threads, 0 for the shared Market
+     */
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Batch the orders each trader sends to a shard. A batch is sent once it
+     * is full or its oldest order has waited batchDelay, so larger batches
+     * trade fill latency for fewer queue handoffs. Only used with shards.
+     * @param batchSize Most orders per batch
+     * @param batchDelay Longest an order waits for its batch to fill, 0 to send at once
+     * @param unit Unit of batchDelay
+     */
+    public void setBatching(int batchSize, long batchDelay, TimeUnit unit) {
+        this.batchSize = batchSize;
+        this.batchDelay = unit.toNanos(batchDelay);
+    }
+
+    /**
+     * Load the market through an on-disk cache of parsed market data, so
+     * repeated runs skip parsing the CSV.
+     * @param cache Cache to load through, null to parse on every run
+     */
+    public void setCache(MarketCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Trade through a limit order book per stock instead of at the market
+     * price: traders place limit orders near the last trade price and are
+     * filled against each other by a matching engine, whose books are split
+     * across shard threads.
+     * @param orderBooks Number of matching shard threads, 0 to trade at the market price
+     */
+    public void setOrderBooks(int orderBooks) {
+        this.orderBooks = orderBooks;
+    }
 
     public int exec(String csvUrl) {
-        AtomicInteger numOfLoops = new AtomicInteger(0);
-        Market.getInstance().load(csvUrl);
+        Market.getInstance().setVersioned(versionedPrices);
+        if (cache != null) {
+            Market.getInstance().load(cache, csvUrl);
+        }
+        // local files are mapped and parsed in parallel
+        else if (csvUrl.startsWith("file:")) {
+            Market.getInstance().load(Paths.get(URI.create(csvUrl)), Runtime.getRuntime().availableProcessors());
+        }
+        else {
+            Market.getInstance().load(csvUrl);
+        }
+        return simulate();
+    }
+
+    /**
+     * Run the traders against the already loaded market for 5 seconds.
+     * @return Number of loops run by all traders
+     */
+    public int simulate() {
+        if (!virtualThreads) {
+            traderPool = Executors.newFixedThreadPool(numberOfTraders);
+        }
+        else if (VirtualThreads.isSupported()) {
+            traderPool = VirtualThreads.newThreadPerTaskExecutor(carrierThreads);
+        }
+        else {
+            traderPool = Executors.newFixedThreadPool(carrierThreads);
+            multiplexed = true;
+        }
+        if (shards > 0) {
+            try {
+                sharded = new ShardedMarket(Market.getInstance().getPrices(), shards);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            sharded.start();
+        }
+        else if (orderBooks > 0) {
+            try {
+                engine = new MatchingEngine(Market.getInstance().getPrices(), orderBooks);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            engine.start();
+        }
 
         // execute market
         scheduler.scheduleAtFixedRate(() -> {
@@ -23,65 +177,180 @@ public class CustomSim {
                 scheduler.shutdown();
             }
             try {
-                Market.getInstance().modifyAll();
-                update = ThreadLocal.withInitial(() -> Boolean.TRUE);
+                if (sharded != null) {
+                    sharded.modifyAll();
+                }
+                // with order books prices only move by trading
+                else if (engine == null) {
+                    Market.getInstance().modifyAll();
+                }
+                marketTicks++;
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
         }, 500, 500, TimeUnit.MILLISECONDS);
 
-        Callable<Long> task = () -> {
+        profits = new CompletableFuture[numberOfTraders];
+        for (int i = 0; i < numberOfTraders; i++) {
+            profits[i] = new CompletableFuture<>();
+            traderPool.execute(new TraderTask(profits[i]));
+        }
+
+        scheduler.schedule(() -> shouldRun = false, 5, TimeUnit.SECONDS);
+
+        long totalProfit = 0;
+        for (int i = 0; i < numberOfTraders; i++) {
+            try {
+                long profit = profits[i].get();
+                totalProfit += profit;
+                if (numberOfTraders <= 16) {
+                    System.out.println("Trader " + i + " Profit: " + profit);
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        if (numberOfTraders > 16) {
+            System.out.println("Traders: " + numberOfTraders + " Total Profit: " + totalProfit);
+        }
+
+        traderPool.shutdown();
+        if (sharded != null) {
+            try {
+                sharded.stop();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        if (engine != null) {
+            System.out.println("Orders: " + engine.getOrders() + " Trades: " + engine.getTrades());
+            try {
+                engine.stop();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        return numOfLoops.get();
+    }
+
+    // a trader and its loop state, so it can run in slices on a shared thread
+    private final class TraderTask implements Runnable {
+        private final CompletableFuture<Long> profit;
+        private Trading trader;
+        private int seenTicks;
+        private int loops;
+
+        TraderTask(CompletableFuture<Long> profit) {
+            this.profit = profit;
+        }
+
+        // the loop allocates nothing: trader state lives in this task and loops
+        // are counted locally, returns false if the task was queued again to let
+        // other traders run
+        private boolean trade() {
+            if (trader == null) {
+                if (sharded != null) {
+                    trader = new ShardedTrader(sharded, batchSize, batchDelay);
+                }
+                else if (engine != null) {
+                    trader = new BookTrader(engine);
+                }
+                else {
+                    trader = new Trader(confinedPortfolios);
+                }
+                seenTicks = marketTicks;
+            }
+            int slice = 0;
             while (shouldRun) {
                 switch(ThreadLocalRandom.current().nextInt(2)) {
                     case 0:
                         try {
-                            trader.get().purchaseStock();
+                            trader.purchaseStock();
                         } catch (InterruptedException e) {
                             e.printStackTrace();
                         }
                         break;
                     case 1:
                         try {
-                            trader.get().sellStock();
+                            trader.sellStock();
                         } catch (InterruptedException e) {
                             e.printStackTrace();
                         }
                 }
-                if (update.get()) {
+                int ticks = marketTicks;
+                if (ticks != seenTicks) {
                     try {
-                        trader.get().updateValues();
+                        trader.updateValues();
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
-                    update.set(Boolean.FALSE);
+                    seenTicks = ticks;
+                }
+                loops++;
+                if (virtualThreads && ++slice == SLICE) {
+                    slice = 0;
+                    // virtual threads are not preempted, let the other traders run
+                    if (multiplexed) {
+                        traderPool.execute(this);
+                        return false;
+                    }
+                    Thread.yield();
                 }
-                numOfLoops.incrementAndGet();
             }
-            return trader.get().getProfit();
-        };
-
-        for (int i = 0; i < numberOfTraders; i++) {
-            profits[i] = traderPool.submit(task);
+            return true;
         }
 
-        scheduler.schedule(() -> shouldRun = false, 5, TimeUnit.SECONDS);
-
-        for (int i = 0; i < numberOfTraders; i++) {
+        @Override
+        public void run() {
             try {
-                System.out.println("Trader " + i + " Profit: " + profits[i].get());
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+                if (!trade()) {
+                    return;
+                }
+            }
+            catch (RuntimeException | Error e) {
+                // fail the future, or the thread collecting profits waits on it forever
+                numOfLoops.addAndGet(loops);
+                profit.completeExceptionally(e);
+                return;
             }
+            numOfLoops.addAndGet(loops);
+            profit.complete(trader.getProfit());
         }
-
-        traderPool.shutdown();
-        return numOfLoops.get();
     }
 
     public static void main(String[] args) {
         CustomSim cs = new CustomSim();
-        int numOfLopps = cs.exec(
-                "http://www.nasdaq.com/screening/companies-by-industry.aspx?exchange=NASDAQ&render=download");
+        cs.setVersionedPrices(Arrays.asList(args).contains("--versioned"));
+        cs.setConfinedPortfolios(Arrays.asList(args).contains("--confined"));
+        cs.setVirtualThreads(Arrays.asList(args).contains("--virtual"));
+        int traders = Arrays.asList(args).indexOf("--traders");
+        if (traders >= 0 && traders + 1 < args.length) {
+            cs.setNumberOfTraders(Integer.parseInt(args[traders + 1]));
+        }
+        int shards = Arrays.asList(args).indexOf("--shards");
+        if (shards >= 0 && shards + 1 < args.length) {
+            cs.setShards(Integer.parseInt(args[shards + 1]));
+        }
+        int books = Arrays.asList(args).indexOf("--books");
+        if (books >= 0 && books + 1 < args.length) {
+            cs.setOrderBooks(Integer.parseInt(args[books + 1]));
+        }
+        int batch = Arrays.asList(args).indexOf("--batch");
+        if (batch >= 0 && batch + 2 < args.length) {
+            // orders per batch and microseconds an order may wait
+            cs.setBatching(Integer.parseInt(args[batch + 1]), Long.parseLong(args[batch + 2]),
+                    TimeUnit.MICROSECONDS);
+        }
+        if (Arrays.asList(args).contains("--cache")) {
+            cs.setCache(new MarketCache(0, 2));
+        }
+        // a CSV of another market, like a file written by SyntheticMarket
+        String csvUrl = "http://www.nasdaq.com/screening/companies-by-industry.aspx?exchange=NASDAQ&render=download";
+        int data = Arrays.asList(args).indexOf("--data");
+        if (data >= 0 && data + 1 < args.length) {
+            csvUrl = args[data + 1];
+        }
+        int numOfLopps = cs.exec(csvUrl);
         System.out.println("Number of Loops: " + numOfLopps);
     }
 
@@ -1,22 +1,46 @@
 package CustomSim;
 
 import ConcurrentUtil.HashTable;
+import ConcurrentUtil.MappedCsvLoader;
+import ConcurrentUtil.MarketCache;
+import ConcurrentUtil.RWLock;
+import ConcurrentUtil.SymbolTable;
+import ConcurrentUtil.TickEngine;
 import ConcurrentUtil.Tuple;
+import ConcurrentUtil.VersionedPrices;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class Market {
 
+    private static final VarHandle PRICES = MethodHandles.arrayElementVarHandle(float[].class);
+
+    // only used while loading, afterwards prices are indexed by symbol id
     private HashTable stocks;
+    private SymbolTable symbols;
+    // current price of each symbol id when prices are modified in place
+    private float[] current;
+    private TickEngine engine;
+    // held for writing while current is ticked, readers normally only validate
+    private final RWLock tickLock;
+    private boolean versioned;
+    private VersionedPrices prices;
 
     public Market() {
         stocks = new HashTable();
+        symbols = new SymbolTable(new String[0]);
+        current = new float[0];
+        tickLock = new RWLock();
+        versioned = false;
     }
 
     // Instance is initialized
@@ -53,6 +77,94 @@ public class Market {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        index();
+    }
+
+    /**
+     * Load the market from a local CSV file, memory mapped and parsed by several
+     * threads at once straight into the table.
+     * @param file Local CSV file with the ticker in the first field and the price in the third
+     * @param threads Number of threads parsing the file
+     */
+    public void load(Path file, int threads) {
+        try {
+            new MappedCsvLoader(0, 2, threads).load(file, (ticker, price) -> stocks.addAndGet(ticker, price));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Reading stock data failed");
+            System.exit(1);
+        }
+        index();
+    }
+
+    /**
+     * Load the market through a cache of parsed market data, only parsing the
+     * CSV if it changed since it was last cached.
+     * @param cache Cache of parsed markets, with the ticker in the first field and the price in the third
+     * @param csvUrl URL of the CSV
+     */
+    public void load(MarketCache cache, String csvUrl) {
+        try {
+            cache.load(csvUrl, (ticker, price) -> stocks.addAndGet(ticker, price));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Reading stock data failed");
+            System.exit(1);
+        }
+        index();
+    }
+
+    /**
+     * Load the market from arrays instead of a CSV file.
+     * @param tickers String ticker symbols
+     * @param values Starting price of each ticker
+     */
+    public void load(String[] tickers, float[] values) {
+        for (int i = 0; i < tickers.length; i++) {
+            stocks.addAndGet(tickers[i], values[i]);
+        }
+        index();
+    }
+
+    // give every loaded ticker a dense id, prices are kept in a column by id
+    private void index() {
+        try {
+            SymbolTable symbols = new SymbolTable(stocks.getKeys().toArray(new String[0]));
+            float[] values = new float[symbols.getSize()];
+            for (int id = 0; id < values.length; id++) {
+                values[id] = stocks.getValue(symbols.symbolOf(id));
+            }
+            // take the loaded prices as version 0
+            if (versioned) {
+                prices = new VersionedPrices(symbols, values);
+            }
+            engine = new TickEngine(values.length);
+            current = values;
+            this.symbols = symbols;
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Publish prices as immutable versions instead of modifying the table in place,
+     * so a reader can value many stocks at one consistent tick. Set before load.
+     * @param versioned True to publish versions
+     */
+    public void setVersioned(boolean versioned) {
+        this.versioned = versioned;
+        if (!versioned) {
+            prices = null;
+        }
+    }
+
+    /**
+     * Pin the current version of all prices.
+     * @return Snapshot of all prices, or null if prices are not versioned
+     */
+    public VersionedPrices.Snapshot getSnapshot() {
+        VersionedPrices p = prices;
+        return p == null ? null : p.current();
     }
 
     /**
@@ -63,12 +175,46 @@ public class Market {
         return InstanceHolder.INSTANCE;
     }
 
+    /**
+     * Get the symbol table giving each loaded stock its id.
+     * @return Symbol table built by load
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
     /**
      * Get the number of stocks in this market.
      * @return The number of stocks in this market
      */
     public int getSize() {
-        return stocks.getSize();
+        return symbols.getSize();
+    }
+
+    /**
+     * Get the value of a stock. Unless prices are versioned the read is
+     * optimistic, and only takes the read lock if a tick ran at the same time.
+     * @param id Id of a stock in the symbol table
+     * @return Price of the stock
+     * @throws InterruptedException Thread is interrupted
+     */
+    public float getStock(int id) throws InterruptedException {
+        VersionedPrices p = prices;
+        if (p != null) {
+            return p.current().get(id);
+        }
+        long stamp = tickLock.tryOptimisticRead();
+        float price = (float) PRICES.getAcquire(current, id);
+        if (tickLock.validate(stamp)) {
+            return price;
+        }
+        tickLock.lockRead();
+        try {
+            return current[id];
+        }
+        finally {
+            tickLock.unlockRead();
+        }
     }
 
     /**
@@ -78,20 +224,43 @@ public class Market {
      * @throws InterruptedException
      */
     public float getStock(String ticker) throws InterruptedException {
-        return stocks.getValue(ticker);
+        int id = symbols.idOf(ticker);
+        return id < 0 ? 0f : getStock(id);
     }
 
+    /**
+     * Copy the current price of every stock.
+     * @return Prices indexed by symbol id
+     * @throws InterruptedException Thread is interrupted
+     */
+    public float[] getPrices() throws InterruptedException {
+        float[] values = new float[symbols.getSize()];
+        for (int id = 0; id < values.length; id++) {
+            values[id] = getStock(id);
+        }
+        return values;
+    }
+
+    /**
+     * Get the id of a random stock.
+     * @return Id of a stock, or -1 if the market is empty
+     */
+    public int getRandomId() {
+        int size = symbols.getSize();
+        return size == 0 ? -1 : ThreadLocalRandom.current().nextInt(size);
+    }
 
     /**
      * Get a random stock and it's value.
-     * @return A tuple containing a stock and it's value
+     * @return A tuple containing a stock and it's value, or null if the market is empty
      * @throws InterruptedException Thread is interrupted
      */
     public Tuple<String, Float> getRandom() throws InterruptedException {
-        Object[] keys = stocks.getKeys().toArray();
-        int index = ThreadLocalRandom.current().nextInt(stocks.getSize());
-        String key = (String) keys[index];
-        return new Tuple<>(key, stocks.getValue(key));
+        int id = getRandomId();
+        if (id < 0) {
+            return null;
+        }
+        return new Tuple<>(symbols.symbolOf(id), getStock(id));
     }
 
     /**
@@ -99,7 +268,19 @@ public class Market {
      * @throws InterruptedException
      */
     public void modifyAll() throws InterruptedException {
-        stocks.modifyValues();
+        VersionedPrices p = prices;
+        if (p != null) {
+            p.tick();
+        }
+        else {
+            tickLock.lockWrite();
+            try {
+                engine.tick(current);
+            }
+            finally {
+                tickLock.unlockWrite();
+            }
+        }
     }
 
 }
@@ -0,0 +1,194 @@
+package CustomSim;
+
+import ConcurrentUtil.MpscQueue;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limit order books for every stock, split by ticker id across shard threads
+ * like ShardedMarket. Each shard is the only thread matching its books, so
+ * matching takes no locks: traders send orders and cancels over the shard's
+ * lock-free queue, and the shard sends them back on the trader's own queue
+ * once done. Books of different shards match in parallel.
+ * Last trade prices are published for lock-free reads.
+ */
+public class MatchingEngine {
+
+    private static final VarHandle LAST_PRICES = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(long[].class);
+    // idle loops a shard spins, then yields, before it starts sleeping
+    private static final int SPINS = 64;
+    private static final int YIELDS = 64;
+    private static final long PARK_NANOS = 50_000;
+    // counters of a shard, padded apart from the other shards'
+    private static final int ORDERS = 0;
+    private static final int TRADES = 1;
+    private static final int PAD = 16;
+
+    private final class Shard implements Runnable {
+        // books and last prices of the ids i with i % shards.length == index, at i / shards.length
+        final OrderBook[] books;
+        final int[] lastPrices;
+        final MpscQueue<Order> orders;
+        final long[] counters;
+        Thread thread;
+
+        Shard(int[] lastPrices) {
+            this.lastPrices = lastPrices;
+            books = new OrderBook[lastPrices.length];
+            for (int i = 0; i < books.length; i++) {
+                books[i] = new OrderBook(lastPrices[i]);
+            }
+            orders = new MpscQueue<>();
+            counters = new long[PAD];
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            long handled = 0;
+            long trades = 0;
+            while (running) {
+                boolean worked = false;
+                for (Order order = orders.poll(); order != null; order = orders.poll()) {
+                    int local = order.id / shards.length;
+                    OrderBook book = books[local];
+                    long before = book.getTrades();
+                    // an order is new until it has been placed or done
+                    if (!order.placed && !order.done) {
+                        order.accepted = System.nanoTime();
+                        book.submit(order);
+                    }
+                    else {
+                        book.cancel(order);
+                    }
+                    trades += book.getTrades() - before;
+                    handled++;
+                    LAST_PRICES.setRelease(lastPrices, local, book.getLastPrice());
+                    worked = true;
+                }
+                if (worked) {
+                    COUNTERS.setRelease(counters, ORDERS, handled);
+                    COUNTERS.setRelease(counters, TRADES, trades);
+                    idle = 0;
+                }
+                else if (idle < SPINS) {
+                    idle++;
+                    Thread.onSpinWait();
+                }
+                else if (idle < SPINS + YIELDS) {
+                    idle++;
+                    Thread.yield();
+                }
+                else {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+            }
+        }
+    }
+
+    private final Shard[] shards;
+    private volatile boolean running;
+
+    /**
+     * Create an engine with a book for every loaded stock.
+     * @param prices Opening price of each symbol id
+     * @param shardCount Number of shard threads
+     */
+    public MatchingEngine(float[] prices, int shardCount) {
+        shards = new Shard[shardCount];
+        for (int s = 0; s < shardCount; s++) {
+            int[] slice = new int[(prices.length - s + shardCount - 1) / shardCount];
+            for (int i = 0; i < slice.length; i++) {
+                slice[i] = Math.round(prices[i * shardCount + s] * 100);
+            }
+            shards[s] = new Shard(slice);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Start a thread for every shard.
+     */
+    public void start() {
+        running = true;
+        for (int s = 0; s < shards.length; s++) {
+            shards[s].thread = new Thread(shards[s], "matcher-" + s);
+            shards[s].thread.setDaemon(true);
+            shards[s].thread.start();
+        }
+    }
+
+    /**
+     * Stop every shard thread. Orders still queued or resting are not sent back.
+     * @throws InterruptedException Thread is interrupted
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Shard shard : shards) {
+            shard.thread.join();
+        }
+    }
+
+    /**
+     * Send an order to the book of its stock. The order comes back once it is
+     * filled or cancelled. Safe to call from any thread.
+     * @param order Order set up with reset and not in flight
+     */
+    public void submit(Order order) {
+        order.inFlight = 1;
+        order.submitted = System.nanoTime();
+        shards[order.id % shards.length].orders.offer(order);
+    }
+
+    /**
+     * Ask for an order to be cancelled. The order comes back once more for
+     * the cancel, and if it was still resting, filled as far as it got.
+     * Only the thread that submitted the order may cancel it, at most once.
+     * @param order Order submitted and not yet come back
+     */
+    public void cancel(Order order) {
+        order.inFlight++;
+        order.cancelling = true;
+        shards[order.id % shards.length].orders.offer(order);
+    }
+
+    /**
+     * Get the price of the last trade of a stock.
+     * @param id Id of a stock in the symbol table
+     * @return Price in cents
+     */
+    public int getLastPrice(int id) {
+        return (int) LAST_PRICES.getAcquire(shards[id % shards.length].lastPrices, id / shards.length);
+    }
+
+    /**
+     * Get the number of orders and cancels matched by all shards so far.
+     * @return Number of orders and cancels handled
+     */
+    public long getOrders() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += (long) COUNTERS.getAcquire(shard.counters, ORDERS);
+        }
+        return total;
+    }
+
+    /**
+     * Get the number of trades made by all shards so far.
+     * @return Number of trades, one per pair of orders filled against each other
+     */
+    public long getTrades() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += (long) COUNTERS.getAcquire(shard.counters, TRADES);
+        }
+        return total;
+    }
+
+}
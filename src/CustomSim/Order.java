@@ -0,0 +1,133 @@
+package CustomSim;
+
+import ConcurrentUtil.MpscQueue;
+
+/**
+ * Limit order for one stock, matched by a MatchingEngine and sent back on its
+ * trader's queue once it is done: fully filled, or cancelled with whatever
+ * part was filled. Every time an order is sent to the engine, to be placed
+ * or cancelled, it comes back once, so a trader may reuse an order as soon
+ * as every send has come back.
+ * Prices are in cents.
+ */
+public final class Order {
+
+    final MpscQueue<Order> replies;
+    int id;
+    boolean buy;
+    int limit;
+    int quantity;
+    // nanoTime of the submit, of the engine first matching the order, and of
+    // its last share filling
+    long submitted;
+    long accepted;
+    long completed;
+    // set by the engine, read by the trader once the order came back
+    int filled;
+    long filledValue;
+    // engine side: placed orders rest in their price level's list until done
+    boolean placed;
+    boolean done;
+    Order prev;
+    Order next;
+    OrderBook.Level level;
+    // trader side: sends not yet come back, whether a cancel was sent, and
+    // shares of the trader's holding set aside for a sell
+    int inFlight;
+    boolean cancelling;
+    int reserved;
+
+    /**
+     * Create an order whose reports are sent to a queue.
+     * @param replies Queue of the trader placing the order
+     */
+    public Order(MpscQueue<Order> replies) {
+        this.replies = replies;
+    }
+
+    /**
+     * Set up the order for a new submit. Only call when every send came back.
+     * @param id Id of the stock
+     * @param buy True to buy, false to sell
+     * @param limit Highest price to buy at, or lowest to sell at, in cents
+     * @param quantity Number of shares
+     */
+    public void reset(int id, boolean buy, int limit, int quantity) {
+        this.id = id;
+        this.buy = buy;
+        this.limit = limit;
+        this.quantity = quantity;
+        submitted = 0;
+        accepted = 0;
+        completed = 0;
+        filled = 0;
+        filledValue = 0;
+        placed = false;
+        done = false;
+        prev = null;
+        next = null;
+        level = null;
+        inFlight = 0;
+        cancelling = false;
+        reserved = 0;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isBuy() {
+        return buy;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public int getFilled() {
+        return filled;
+    }
+
+    /**
+     * Get the value of the filled shares, each at the price it traded at.
+     * @return Value in cents
+     */
+    public long getFilledValue() {
+        return filledValue;
+    }
+
+    /**
+     * Get the time the order waited for the engine to start matching it.
+     * @return Nanoseconds from the submit until the engine took the order
+     */
+    public long getQueueLatency() {
+        return accepted - submitted;
+    }
+
+    /**
+     * Get the time the order took to fill completely.
+     * @return Nanoseconds from the submit until the last share filled, or -1
+     *         if the order came back with shares unfilled
+     */
+    public long getFillLatency() {
+        return filled == quantity ? completed - submitted : -1;
+    }
+
+    /**
+     * Count a send that came back. Call once for every time the order is
+     * polled from the trader's queue.
+     * @return True if every send came back and the order can be reused
+     */
+    public boolean settle() {
+        return --inFlight == 0;
+    }
+
+    public boolean isCancelling() {
+        return cancelling;
+    }
+
+}
@@ -0,0 +1,200 @@
+package CustomSim;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Limit order book of one stock. Resting orders wait in a list per price
+ * level, oldest first, and an incoming order trades against the best levels
+ * of the other side, at their prices, for as long as its limit allows. What
+ * is left of it then rests at its limit.
+ * Only one thread may use a book, the engine shard owning the stock.
+ */
+public class OrderBook {
+
+    /**
+     * Orders resting at one price, oldest first.
+     */
+    static final class Level {
+        final int price;
+        Order head;
+        Order tail;
+        // shares left to fill at this price
+        long quantity;
+
+        Level(int price) {
+            this.price = price;
+        }
+    }
+
+    // best level first on both sides
+    private final TreeMap<Integer, Level> bids;
+    private final TreeMap<Integer, Level> asks;
+    private int lastPrice;
+    private long trades;
+    private long volume;
+
+    /**
+     * Create an empty book.
+     * @param lastPrice Price of the last trade before the book opens, in cents
+     */
+    public OrderBook(int lastPrice) {
+        bids = new TreeMap<>(Collections.reverseOrder());
+        asks = new TreeMap<>();
+        this.lastPrice = lastPrice;
+    }
+
+    /**
+     * Match a new order and rest what is left of it. The order, and every
+     * resting order it completes, is sent back to its trader once done.
+     * @param order Order seen by the engine for the first time
+     */
+    public void submit(Order order) {
+        TreeMap<Integer, Level> other = order.buy ? asks : bids;
+        int remaining = order.quantity;
+        while (remaining > 0 && !other.isEmpty()) {
+            Level best = other.firstEntry().getValue();
+            if (order.buy ? best.price > order.limit : best.price < order.limit) {
+                break;
+            }
+            while (remaining > 0 && best.head != null) {
+                Order maker = best.head;
+                int shares = Math.min(remaining, maker.quantity - maker.filled);
+                remaining -= shares;
+                fill(order, shares, best.price);
+                fill(maker, shares, best.price);
+                best.quantity -= shares;
+                lastPrice = best.price;
+                trades++;
+                volume += shares;
+                if (maker.filled == maker.quantity) {
+                    unlink(maker);
+                    finish(maker);
+                }
+            }
+            if (best.head == null) {
+                other.remove(best.price);
+            }
+        }
+        if (remaining == 0) {
+            finish(order);
+        }
+        else {
+            rest(order);
+        }
+    }
+
+    /**
+     * Cancel an order. A resting order is taken off the book and sent back,
+     * and in any case the cancel itself is sent back.
+     * @param order Order already submitted to this book
+     */
+    public void cancel(Order order) {
+        if (order.placed) {
+            unlink(order);
+            Level level = order.level;
+            level.quantity -= order.quantity - order.filled;
+            if (level.head == null) {
+                (order.buy ? bids : asks).remove(level.price);
+            }
+            finish(order);
+        }
+        order.replies.offer(order);
+    }
+
+    private static void fill(Order order, int shares, int price) {
+        order.filled += shares;
+        order.filledValue += (long) shares * price;
+        if (order.filled == order.quantity) {
+            order.completed = System.nanoTime();
+        }
+    }
+
+    // add an order at the back of its limit's level
+    private void rest(Order order) {
+        TreeMap<Integer, Level> side = order.buy ? bids : asks;
+        Level level = side.get(order.limit);
+        if (level == null) {
+            level = new Level(order.limit);
+            side.put(order.limit, level);
+        }
+        order.level = level;
+        order.prev = level.tail;
+        order.next = null;
+        if (level.tail == null) {
+            level.head = order;
+        }
+        else {
+            level.tail.next = order;
+        }
+        level.tail = order;
+        level.quantity += order.quantity - order.filled;
+        order.placed = true;
+    }
+
+    private static void unlink(Order order) {
+        Level level = order.level;
+        if (order.prev == null) {
+            level.head = order.next;
+        }
+        else {
+            order.prev.next = order.next;
+        }
+        if (order.next == null) {
+            level.tail = order.prev;
+        }
+        else {
+            order.next.prev = order.prev;
+        }
+        order.prev = null;
+        order.next = null;
+        order.placed = false;
+    }
+
+    // publish the fills to the trader
+    private static void finish(Order order) {
+        order.done = true;
+        order.level = null;
+        order.replies.offer(order);
+    }
+
+    /**
+     * Get the price of the last trade.
+     * @return Price in cents, the opening price until the first trade
+     */
+    public int getLastPrice() {
+        return lastPrice;
+    }
+
+    /**
+     * Get the highest price a resting order buys at.
+     * @return Price in cents, or -1 if no buy order rests
+     */
+    public int getBestBid() {
+        Map.Entry<Integer, Level> best = bids.firstEntry();
+        return best == null ? -1 : best.getKey();
+    }
+
+    /**
+     * Get the lowest price a resting order sells at.
+     * @return Price in cents, or -1 if no sell order rests
+     */
+    public int getBestAsk() {
+        Map.Entry<Integer, Level> best = asks.firstEntry();
+        return best == null ? -1 : best.getKey();
+    }
+
+    public long getTrades() {
+        return trades;
+    }
+
+    /**
+     * Get the number of shares traded.
+     * @return Shares traded since the book opened
+     */
+    public long getVolume() {
+        return volume;
+    }
+
+}
@@ -0,0 +1,240 @@
+package CustomSim;
+
+import ConcurrentUtil.MpscQueue;
+import ConcurrentUtil.TickEngine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Market split by ticker id across shard threads. Each shard is the only
+ * writer of its slice of prices: traders send orders over the shard's
+ * lock-free queue in batches and the shard fills them at its current price,
+ * sending each filled batch back on the trader's own queue.
+ * Prices are read without locks, since a price only ever has one writer.
+ */
+public class ShardedMarket {
+
+    private static final VarHandle PRICES = MethodHandles.arrayElementVarHandle(float[].class);
+    // idle loops a shard spins, then yields, before it starts sleeping
+    private static final int SPINS = 64;
+    private static final int YIELDS = 64;
+    private static final long PARK_NANOS = 50_000;
+
+    /**
+     * Orders for stocks of one shard, sent and filled together so the queue
+     * handoff and the shard's wakeup are paid once per batch instead of once
+     * per order. Reused by its trader once it comes back filled.
+     */
+    public static final class Batch {
+        final MpscQueue<Batch> replies;
+        final int[] ids;
+        final boolean[] buys;
+        // set by the shard before it sends the batch back
+        final float[] prices;
+        int size;
+        // nanoTime of the first order added since the batch was last cleared
+        long opened;
+
+        /**
+         * Create a batch whose fills are sent to a queue.
+         * @param replies Queue of the trader placing the orders
+         * @param capacity Most orders in the batch
+         */
+        public Batch(MpscQueue<Batch> replies, int capacity) {
+            this.replies = replies;
+            ids = new int[capacity];
+            buys = new boolean[capacity];
+            prices = new float[capacity];
+        }
+
+        /**
+         * Add an order. Every order of a batch must go to the same shard.
+         * @param id Id of the stock
+         * @param buy True to buy, false to sell
+         * @return True if the batch is now full
+         */
+        public boolean add(int id, boolean buy) {
+            if (size == 0) {
+                opened = System.nanoTime();
+            }
+            ids[size] = id;
+            buys[size] = buy;
+            return ++size == ids.length;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getId(int i) {
+            return ids[i];
+        }
+
+        public boolean isBuy(int i) {
+            return buys[i];
+        }
+
+        /**
+         * Get the price an order was filled at.
+         * @param i Index of the order in this batch
+         * @return Price, only set once the batch came back filled
+         */
+        public float getPrice(int i) {
+            return prices[i];
+        }
+
+        /**
+         * Get the time the first order was added.
+         * @return nanoTime of the oldest order, meaningless if the batch is empty
+         */
+        public long getOpened() {
+            return opened;
+        }
+
+        /**
+         * Empty the batch so it can be reused.
+         */
+        public void clear() {
+            size = 0;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        // prices of the ids i with i % shards.length == index, at i / shards.length
+        final float[] prices;
+        final TickEngine engine;
+        final MpscQueue<Batch> orders;
+        // number of ticks requested and done, only the shard writes ticked
+        volatile int tickRequests;
+        int ticked;
+        Thread thread;
+
+        Shard(float[] prices) {
+            this.prices = prices;
+            engine = new TickEngine(prices.length);
+            orders = new MpscQueue<>();
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                boolean worked = false;
+                for (Batch batch = orders.poll(); batch != null; batch = orders.poll()) {
+                    for (int i = 0; i < batch.size; i++) {
+                        batch.prices[i] = prices[batch.ids[i] / shards.length];
+                    }
+                    batch.replies.offer(batch);
+                    worked = true;
+                }
+                int requests = tickRequests;
+                if (requests != ticked) {
+                    engine.tick(prices);
+                    // publish the tick to readers using getAcquire
+                    VarHandle.releaseFence();
+                    ticked = requests;
+                    worked = true;
+                }
+                if (worked) {
+                    idle = 0;
+                }
+                else if (idle < SPINS) {
+                    idle++;
+                    Thread.onSpinWait();
+                }
+                else if (idle < SPINS + YIELDS) {
+                    idle++;
+                    Thread.yield();
+                }
+                else {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+            }
+        }
+    }
+
+    private final Shard[] shards;
+    private volatile boolean running;
+
+    /**
+     * Create a sharded market from the loaded prices.
+     * @param prices Price of each symbol id
+     * @param shardCount Number of shard threads
+     */
+    public ShardedMarket(float[] prices, int shardCount) {
+        shards = new Shard[shardCount];
+        for (int s = 0; s < shardCount; s++) {
+            float[] slice = new float[(prices.length - s + shardCount - 1) / shardCount];
+            for (int i = 0; i < slice.length; i++) {
+                slice[i] = prices[i * shardCount + s];
+            }
+            shards[s] = new Shard(slice);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Start a thread for every shard.
+     */
+    public void start() {
+        running = true;
+        for (int s = 0; s < shards.length; s++) {
+            shards[s].thread = new Thread(shards[s], "shard-" + s);
+            shards[s].thread.setDaemon(true);
+            shards[s].thread.start();
+        }
+    }
+
+    /**
+     * Stop every shard thread. Orders still queued are not filled.
+     * @throws InterruptedException Thread is interrupted
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Shard shard : shards) {
+            shard.thread.join();
+        }
+    }
+
+    /**
+     * Get the shard owning a stock, orders for it go in that shard's batches.
+     * @param id Id of a stock in the symbol table
+     * @return Index of the shard
+     */
+    public int shardOf(int id) {
+        return id % shards.length;
+    }
+
+    /**
+     * Send a batch to the shard owning its stocks. Safe to call from any thread.
+     * @param batch Non-empty batch of orders for one shard
+     */
+    public void submit(Batch batch) {
+        shards[shardOf(batch.ids[0])].orders.offer(batch);
+    }
+
+    /**
+     * Get the value of a stock.
+     * @param id Id of a stock in the symbol table
+     * @return Price of the stock
+     */
+    public float getStock(int id) {
+        return (float) PRICES.getAcquire(shards[id % shards.length].prices, id / shards.length);
+    }
+
+    /**
+     * Ask every shard to tick its prices. Shards tick in parallel, each at its
+     * own pace. Only one thread may request ticks.
+     */
+    public void modifyAll() {
+        for (Shard shard : shards) {
+            shard.tickRequests++;
+        }
+    }
+
+}
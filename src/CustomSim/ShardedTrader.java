@@ -0,0 +1,184 @@
+package CustomSim;
+
+import ConcurrentUtil.MpscQueue;
+import ConcurrentUtil.OwnedTable;
+
+/**
+ * Trader sending its orders to a sharded market. Orders are batched per shard,
+ * go out to the shards and come back filled on fills, to be reused. Only the
+ * creating thread may use this trader, its holdings are only written by that
+ * thread.
+ */
+public class ShardedTrader implements Trading {
+
+    // most orders a trader has in flight
+    private static final int MAX_ORDERS = 64;
+
+    // value and shares held of each owned stock by symbol id
+    private final OwnedTable shares;
+    private long profit = 0;
+    private final ShardedMarket sharded;
+    private final MpscQueue<ShardedMarket.Batch> fills;
+    private final ShardedMarket.Batch[] freeBatches;
+    private int freeCount;
+    // batch being filled for each shard, or null
+    private final ShardedMarket.Batch[] open;
+    private final int batchSize;
+    private final long batchDelay;
+    // nanoTime of the oldest order not yet sent, or -1 if every order was sent
+    private long pendingSince = -1;
+
+    /**
+     * Create a new ShardedTrader sending every order on its own. The market
+     * must be loaded first.
+     * @param sharded Sharded market filling the orders
+     */
+    public ShardedTrader(ShardedMarket sharded) {
+        this(sharded, 1, 0L);
+    }
+
+    /**
+     * Create a new ShardedTrader. The market must be loaded first.
+     * Orders are collected per shard and a batch is sent once it holds
+     * batchSize orders, or once its oldest order has waited batchDelay
+     * nanoseconds. Larger batches cost the shards less per order, but leave
+     * orders unfilled for longer.
+     * @param sharded Sharded market filling the orders
+     * @param batchSize Most orders per batch
+     * @param batchDelay Nanoseconds an order may wait for its batch to fill, 0 to send at once
+     */
+    public ShardedTrader(ShardedMarket sharded, int batchSize, long batchDelay) {
+        shares = new OwnedTable();
+        this.sharded = sharded;
+        this.batchSize = batchSize;
+        this.batchDelay = batchDelay;
+        fills = new MpscQueue<>();
+        // enough for MAX_ORDERS in flight and a batch being filled for every shard
+        int count = sharded.getShardCount() + Math.max(1, MAX_ORDERS / batchSize);
+        freeBatches = new ShardedMarket.Batch[count];
+        for (int i = 0; i < count; i++) {
+            freeBatches[i] = new ShardedMarket.Batch(fills, batchSize);
+        }
+        freeCount = count;
+        open = new ShardedMarket.Batch[sharded.getShardCount()];
+    }
+
+    // apply the batches filled by the shards since the last call
+    private void settle() {
+        for (ShardedMarket.Batch batch = fills.poll(); batch != null; batch = fills.poll()) {
+            for (int i = 0; i < batch.getSize(); i++) {
+                float price = batch.getPrice(i);
+                if (batch.isBuy(i)) {
+                    shares.addAndGet(batch.getId(i), price);
+                    profit -= price;
+                }
+                else {
+                    profit += price;
+                }
+            }
+            batch.clear();
+            freeBatches[freeCount++] = batch;
+        }
+    }
+
+    // send every batch holding orders
+    private void flush() {
+        for (int s = 0; s < open.length; s++) {
+            if (open[s] != null) {
+                sharded.submit(open[s]);
+                open[s] = null;
+            }
+        }
+        pendingSince = -1;
+    }
+
+    // nanoTime of the oldest order in a batch not yet sent, or -1 if there is none
+    private long oldestOpen() {
+        long oldest = -1;
+        for (ShardedMarket.Batch batch : open) {
+            if (batch != null && (oldest < 0 || batch.getOpened() - oldest < 0)) {
+                oldest = batch.getOpened();
+            }
+        }
+        return oldest;
+    }
+
+    // add an order to its shard's batch, first waiting for a fill if too many
+    // are in flight
+    private void submit(int id, boolean buy) {
+        int s = sharded.shardOf(id);
+        ShardedMarket.Batch batch = open[s];
+        if (batch == null) {
+            while (freeCount == 0) {
+                flush();
+                // the shards may need this thread's core to catch up
+                Thread.yield();
+                settle();
+            }
+            batch = freeBatches[--freeCount];
+            open[s] = batch;
+        }
+        if (batch.add(id, buy)) {
+            sharded.submit(batch);
+            open[s] = null;
+            // the sent batch may have held the oldest order
+            pendingSince = oldestOpen();
+        }
+        if (batchDelay == 0L) {
+            flush();
+        }
+        else if (pendingSince < 0) {
+            pendingSince = oldestOpen();
+        }
+        else if (System.nanoTime() - pendingSince >= batchDelay) {
+            flush();
+        }
+    }
+
+    @Override
+    public long getProfit() {
+        return profit;
+    }
+
+    /**
+     * Purchase a random stock. This sends the order, which is paid for once
+     * the filled order comes back.
+     */
+    @Override
+    public void purchaseStock() {
+        int id = Market.getInstance().getRandomId();
+        if (id < 0) {
+            return;
+        }
+        settle();
+        submit(id, true);
+    }
+
+    /**
+     * Update the values of owned stocks from the shards' prices.
+     */
+    @Override
+    public void updateValues() {
+        settle();
+        for (int i = 0; i < shares.getSize(); i++) {
+            int id = shares.idAt(i);
+            shares.updatePair(id, sharded.getStock(id));
+        }
+    }
+
+    /**
+     * Sell one share of a stock. The share leaves the holdings when the order
+     * is sent, and the sale is credited once the filled order comes back.
+     */
+    @Override
+    public void sellStock() {
+        settle();
+        int id = shares.getRandomId();
+        // the shard fills the sale at its current price
+        if (id >= 0) {
+            shares.removeShares(id, 1);
+            submit(id, false);
+        }
+    }
+
+}
@@ -1,73 +1,99 @@
 package CustomSim;
 
-import ConcurrentUtil.HashTable;
-import ConcurrentUtil.Tuple;
+import ConcurrentUtil.DenseTable;
+import ConcurrentUtil.IdTable;
+import ConcurrentUtil.OwnedTable;
+import ConcurrentUtil.VersionedPrices;
 
-import java.util.Set;
-import java.util.concurrent.ThreadLocalRandom;
+/**
+ * Trader buying and selling at the market's prices directly.
+ */
+public class Trader implements Trading {
 
-public class Trader {
-
-    private HashTable stocks;
+    // value of each owned stock by symbol id
+    private IdTable stocks;
     private long profit = 0;
 
     /**
-     * Create a new Trader object.
+     * Create a new Trader object. The market must be loaded first.
      */
     public Trader() {
-        stocks = new HashTable();
+        this(false);
+    }
+
+    /**
+     * Create a new Trader object. The market must be loaded first.
+     * @param confined True if only the creating thread will use this trader, so its
+     *                 holdings need no synchronization until it is done
+     */
+    public Trader(boolean confined) {
+        stocks = confined ? new OwnedTable() : new DenseTable();
     }
 
     /**
      * Get the current profit of this trader.
      * @return long profit of this trader
      */
+    @Override
     public long getProfit() {
         return profit;
     }
 
-    private Tuple<String, Float> getRandom() throws InterruptedException {
-        Object[] keys = stocks.getKeys().toArray();
-        int index = ThreadLocalRandom.current().nextInt(stocks.getSize());
-        String key = (String) keys[index];
-        return new Tuple<>(key, stocks.getValue(key));
+    /**
+     * Get the value of all owned stocks at their last update. For a confined
+     * trader, call from the owning thread or after its task has completed.
+     * @return Sum of the values of owned stocks
+     */
+    public double getHoldingsValue() {
+        double total = 0;
+        for (int i = 0; i < stocks.getSize(); i++) {
+            total += stocks.getValue(stocks.idAt(i));
+        }
+        return total;
     }
 
     /**
      * Purchase a random stock.
      * @throws InterruptedException Thread is interrupted
      */
+    @Override
     public void purchaseStock() throws InterruptedException {
         Market market = Market.getInstance();
-        Tuple<String, Float> stockInfo = market.getRandom();
-        stocks.add(stockInfo.key, stockInfo.value);
-        profit -= stockInfo.value;
+        int id = market.getRandomId();
+        if (id < 0) {
+            return;
+        }
+        float price = market.getStock(id);
+        stocks.addAndGet(id, price);
+        profit -= price;
     }
 
     /**
      * Update the values of owned stocks from the market prices.
+     * With versioned prices every stock is valued at the same tick.
      */
+    @Override
     public void updateValues() throws InterruptedException {
         Market market = Market.getInstance();
-        Set<String> keys = stocks.getKeys();
-        keys.forEach(key -> {
-            try {
-                stocks.updatePair(key, market.getStock(key));
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        });
+        VersionedPrices.Snapshot snapshot = market.getSnapshot();
+        for (int i = 0; i < stocks.getSize(); i++) {
+            int id = stocks.idAt(i);
+            stocks.updatePair(id, snapshot != null ? snapshot.get(id) : market.getStock(id));
+        }
     }
 
     /**
      * Sell a stock, removing it from this Trader's owned stocks.
      * @throws InterruptedException Thread is interrupted
      */
+    @Override
     public void sellStock() throws InterruptedException {
-        if (stocks.getSize() > 0) {
-            Tuple<String, Float> stock = getRandom();
-            stocks.remove(stock.key);
-            profit += stock.value;
+        int id = stocks.getRandomId();
+        if (id >= 0) {
+            float value = stocks.remove(id);
+            if (!Float.isNaN(value)) {
+                profit += value;
+            }
         }
     }
 
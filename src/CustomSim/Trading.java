@@ -0,0 +1,35 @@
+package CustomSim;
+
+/**
+ * A trader's loop operations, one implementation for each way of reaching the
+ * market: Trader buys and sells at the market's prices directly, ShardedTrader
+ * sends orders to a sharded market and BookTrader places limit orders in the
+ * order books of a matching engine.
+ */
+public interface Trading {
+
+    /**
+     * Get the current profit of this trader.
+     * @return long profit of this trader
+     */
+    long getProfit();
+
+    /**
+     * Purchase a random stock.
+     * @throws InterruptedException Thread is interrupted
+     */
+    void purchaseStock() throws InterruptedException;
+
+    /**
+     * Sell a stock this trader owns.
+     * @throws InterruptedException Thread is interrupted
+     */
+    void sellStock() throws InterruptedException;
+
+    /**
+     * Update the values of owned stocks from the market prices.
+     * @throws InterruptedException Thread is interrupted
+     */
+    void updateValues() throws InterruptedException;
+
+}
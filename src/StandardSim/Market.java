@@ -1,5 +1,7 @@
 package StandardSim;
 
+import ConcurrentUtil.MappedCsvLoader;
+import ConcurrentUtil.MarketCache;
 import ConcurrentUtil.Tuple;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
@@ -8,16 +10,20 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class Market {
 
     private ConcurrentHashMap<String, Float> stocks;
+    // tickers for random picks, only set by init since no stock is ever removed
+    private volatile String[] tickers;
 
     // private constructor for singleton class
     private Market() {
         stocks = new ConcurrentHashMap<>();
+        tickers = new String[0];
     }
 
     // Instance is initialized
@@ -60,6 +66,58 @@ public class Market {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        indexTickers();
+    }
+
+    /**
+     * Initialize the market from a local CSV file, memory mapped and parsed by
+     * several threads at once straight into the table.
+     * @param file Local CSV file with the ticker in the first field and the price in the third
+     * @param threads Number of threads parsing the file
+     */
+    public void init(Path file, int threads) {
+        try {
+            new MappedCsvLoader(0, 2, threads).load(file, stocks::put);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Reading stock data failed");
+            System.exit(1);
+        }
+        indexTickers();
+    }
+
+    /**
+     * Initialize the market through a cache of parsed market data, only parsing
+     * the CSV if it changed since it was last cached.
+     * @param cache Cache of parsed markets, with the ticker in the first field and the price in the third
+     * @param csvUrl URL of the CSV
+     */
+    public void init(MarketCache cache, String csvUrl) {
+        try {
+            cache.load(csvUrl, stocks::put);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Reading stock data failed");
+            System.exit(1);
+        }
+        indexTickers();
+    }
+
+    /**
+     * Initialize the market from arrays instead of a CSV file.
+     * @param tickers String ticker symbols
+     * @param values Starting price of each ticker
+     */
+    public void init(String[] tickers, float[] values) {
+        for (int i = 0; i < tickers.length; i++) {
+            stocks.put(tickers[i], values[i]);
+        }
+        indexTickers();
+    }
+
+    // publish the loaded tickers for getRandom
+    private void indexTickers() {
+        tickers = stocks.keySet().toArray(new String[0]);
     }
 
     /**
@@ -87,9 +145,8 @@ public class Market {
      * @throws InterruptedException Thread is interrupted
      */
     public Tuple<String, Float> getRandom() throws InterruptedException {
-        Object[] keys = stocks.keySet().toArray();
-        int index = ThreadLocalRandom.current().nextInt(stocks.size());
-        String key = (String) keys[index];
+        String[] t = tickers;
+        String key = t[ThreadLocalRandom.current().nextInt(t.length)];
         return new Tuple<>(key, stocks.get(key));
     }
 
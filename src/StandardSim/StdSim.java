@@ -1,21 +1,107 @@
 package StandardSim;
 
+import ConcurrentUtil.MarketCache;
+import ConcurrentUtil.VirtualThreads;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class StdSim {
 
+    // loops a trader runs before giving its thread to another trader
+    private static final int SLICE = 256;
+
     private int numberOfTraders = 16;
-    private ExecutorService traderPool = Executors.newFixedThreadPool(numberOfTraders);
+    private int carrierThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService traderPool;
     private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
-    private ThreadLocal<Trader> trader = ThreadLocal.withInitial(Trader::new);
-    private ThreadLocal<Boolean> update = ThreadLocal.withInitial(() -> Boolean.FALSE);
-    private Future<Long>[] profits = new Future[numberOfTraders];
-    private boolean shouldRun = true;
+    private CompletableFuture<Long>[] profits;
+    private volatile boolean shouldRun = true;
+    // number of market updates so far, traders revalue when it changes
+    private volatile int marketTicks = 0;
+    private boolean confinedPortfolios = false;
+    private boolean virtualThreads = false;
+    // traders take turns on a fixed pool when virtual threads are unavailable
+    private boolean multiplexed = false;
+    private MarketCache cache;
+    private final AtomicInteger numOfLoops = new AtomicInteger(0);
+
+    /**
+     * Keep each trader's holdings in a single-owner table, since every trader is
+     * confined to one task.
+     * @param confinedPortfolios True to use single-owner holdings
+     */
+    public void setConfinedPortfolios(boolean confinedPortfolios) {
+        this.confinedPortfolios = confinedPortfolios;
+    }
+
+    /**
+     * Set the number of traders. Without virtual threads each one gets a platform thread.
+     * @param numberOfTraders Number of traders
+     */
+    public void setNumberOfTraders(int numberOfTraders) {
+        this.numberOfTraders = numberOfTraders;
+    }
+
+    /**
+     * Run each trader on its own virtual thread, over at most carrierThreads
+     * platform threads. On a JDK without virtual threads the traders take turns
+     * on a pool of carrierThreads threads instead.
+     * @param virtualThreads True to use virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Set the number of platform threads running traders in virtual thread mode.
+     * @param carrierThreads Number of platform threads
+     */
+    public void setCarrierThreads(int carrierThreads) {
+        this.carrierThreads = carrierThreads;
+    }
+
+    /**
+     * Initialize the market through an on-disk cache of parsed market data, so
+     * repeated runs skip parsing the CSV.
+     * @param cache Cache to load through, null to parse on every run
+     */
+    public void setCache(MarketCache cache) {
+        this.cache = cache;
+    }
 
     public int exec(String csvUrl) {
-        AtomicInteger numOfLoops = new AtomicInteger(0);
-        Market.getInstance().init(csvUrl);
+        if (cache != null) {
+            Market.getInstance().init(cache, csvUrl);
+        }
+        // local files are mapped and parsed in parallel
+        else if (csvUrl.startsWith("file:")) {
+            Market.getInstance().init(Paths.get(URI.create(csvUrl)), Runtime.getRuntime().availableProcessors());
+        }
+        else {
+            Market.getInstance().init(csvUrl);
+        }
+        return simulate();
+    }
+
+    /**
+     * Run the traders against the already initialized market for 5 seconds.
+     * @return Number of loops run by all traders
+     */
+    public int simulate() {
+        if (!virtualThreads) {
+            traderPool = Executors.newFixedThreadPool(numberOfTraders);
+        }
+        else if (VirtualThreads.isSupported()) {
+            traderPool = VirtualThreads.newThreadPerTaskExecutor(carrierThreads);
+        }
+        else {
+            traderPool = Executors.newFixedThreadPool(carrierThreads);
+            multiplexed = true;
+        }
 
         // execute market
         scheduler.scheduleAtFixedRate(() -> {
@@ -24,60 +110,130 @@ public class StdSim {
             }
             try {
                 Market.getInstance().modifyAll();
-                update = ThreadLocal.withInitial(() -> Boolean.TRUE);
+                marketTicks++;
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
         }, 500, 500, TimeUnit.MILLISECONDS);
 
-        Callable<Long> task = () -> {
+        profits = new CompletableFuture[numberOfTraders];
+        for (int i = 0; i < numberOfTraders; i++) {
+            profits[i] = new CompletableFuture<>();
+            traderPool.execute(new TraderTask(profits[i]));
+        }
+
+        scheduler.schedule(() -> shouldRun = false, 5, TimeUnit.SECONDS);
+
+        long totalProfit = 0;
+        for (int i = 0; i < numberOfTraders; i++) {
+            try {
+                long profit = profits[i].get();
+                totalProfit += profit;
+                if (numberOfTraders <= 16) {
+                    System.out.println("Trader " + i + " Profit: " + profit);
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        if (numberOfTraders > 16) {
+            System.out.println("Traders: " + numberOfTraders + " Total Profit: " + totalProfit);
+        }
+
+        traderPool.shutdown();
+        return numOfLoops.get();
+    }
+
+    // a trader and its loop state, so it can run in slices on a shared thread
+    private final class TraderTask implements Runnable {
+        private final CompletableFuture<Long> profit;
+        private Trader trader;
+        private int seenTicks;
+        private int loops;
+
+        TraderTask(CompletableFuture<Long> profit) {
+            this.profit = profit;
+        }
+
+        // trader state lives in this task and loops are counted locally,
+        // returns false if the task was queued again to let other traders run
+        private boolean trade() {
+            if (trader == null) {
+                trader = new Trader(confinedPortfolios);
+                seenTicks = marketTicks;
+            }
+            int slice = 0;
             while (shouldRun) {
                 switch(ThreadLocalRandom.current().nextInt(2)) {
                     case 0:
                         try {
-                            trader.get().purchaseStock();
+                            trader.purchaseStock();
                         } catch (InterruptedException e) {
                             e.printStackTrace();
                         }
                         break;
                     case 1:
                         try {
-                            trader.get().sellStock();
+                            trader.sellStock();
                         } catch (InterruptedException e) {
                             e.printStackTrace();
                         }
                 }
-                if (update.get()) {
-                    trader.get().updateValues();
-                    update.set(Boolean.FALSE);
+                int ticks = marketTicks;
+                if (ticks != seenTicks) {
+                    trader.updateValues();
+                    seenTicks = ticks;
+                }
+                loops++;
+                if (virtualThreads && ++slice == SLICE) {
+                    slice = 0;
+                    // virtual threads are not preempted, let the other traders run
+                    if (multiplexed) {
+                        traderPool.execute(this);
+                        return false;
+                    }
+                    Thread.yield();
                 }
-                numOfLoops.incrementAndGet();
             }
-            return trader.get().getProfit();
-        };
-
-        for (int i = 0; i < numberOfTraders; i++) {
-            profits[i] = traderPool.submit(task);
+            return true;
         }
 
-        scheduler.schedule(() -> shouldRun = false, 5, TimeUnit.SECONDS);
-
-        for (int i = 0; i < numberOfTraders; i++) {
+        @Override
+        public void run() {
             try {
-                System.out.println("Trader " + i + " Profit: " + profits[i].get());
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+                if (!trade()) {
+                    return;
+                }
             }
+            catch (RuntimeException | Error e) {
+                // fail the future, or the thread collecting profits waits on it forever
+                numOfLoops.addAndGet(loops);
+                profit.completeExceptionally(e);
+                return;
+            }
+            numOfLoops.addAndGet(loops);
+            profit.complete(trader.getProfit());
         }
-
-        traderPool.shutdown();
-        return numOfLoops.get();
     }
 
     public static void main(String[] args) {
         StdSim ss = new StdSim();
-        int numOfLoops = ss.exec(
-                "http://www.nasdaq.com/screening/companies-by-industry.aspx?exchange=NASDAQ&render=download");
+        ss.setConfinedPortfolios(Arrays.asList(args).contains("--confined"));
+        ss.setVirtualThreads(Arrays.asList(args).contains("--virtual"));
+        int traders = Arrays.asList(args).indexOf("--traders");
+        if (traders >= 0 && traders + 1 < args.length) {
+            ss.setNumberOfTraders(Integer.parseInt(args[traders + 1]));
+        }
+        if (Arrays.asList(args).contains("--cache")) {
+            ss.setCache(new MarketCache(0, 2));
+        }
+        // a CSV of another market, like a file written by SyntheticMarket
+        String csvUrl = "http://www.nasdaq.com/screening/companies-by-industry.aspx?exchange=NASDAQ&render=download";
+        int data = Arrays.asList(args).indexOf("--data");
+        if (data >= 0 && data + 1 < args.length) {
+            csvUrl = args[data + 1];
+        }
+        int numOfLoops = ss.exec(csvUrl);
         System.out.println("Number of Loops: " + numOfLoops);
     }
 
@@ -2,19 +2,30 @@ package StandardSim;
 
 import ConcurrentUtil.Tuple;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class Trader {
 
-    private ConcurrentHashMap<String, Float> stocks;
+    private Map<String, Float> stocks;
     private long profit = 0;
 
     /**
      * Create a new Trader object.
      */
     public Trader() {
-        stocks = new ConcurrentHashMap<>();
+        this(false);
+    }
+
+    /**
+     * Create a new Trader object.
+     * @param confined True if only the creating thread will use this trader, so its
+     *                 holdings need no synchronization until it is done
+     */
+    public Trader(boolean confined) {
+        stocks = confined ? new HashMap<>() : new ConcurrentHashMap<>();
     }
 
     /**